@@ -0,0 +1,31 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks like the JMH main class, with the GC profiler always on so every
+ * result comes with its allocation rate (<code>gc.alloc.rate.norm</code> is bytes per
+ * operation). All the usual JMH options work, for example
+ * <pre>
+ * java -jar target/benchmarks.jar Controller -p wordLength=8 -f 1
+ * </pre>
+ */
+public class BenchmarkMain
+{
+  public static void main(String[] args) throws Exception
+  {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    if(commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats())
+    {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+    Options options = new OptionsBuilder()
+        .parent(commandLine)
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
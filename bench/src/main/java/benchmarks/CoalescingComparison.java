@@ -0,0 +1,148 @@
+package benchmarks;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import common.*;
+
+/**
+ * Measures how long answers take, to compare a running server with and without a coalescing
+ * window. Every connection sends a burst of START, GUESS and FINISH commands, each one with
+ * its own write and without waiting, then reads all the answers and thinks for a while. The
+ * time from sending a command to reading its answer is counted in a
+ * <code>common.LatencyHistogram</code> and p50/p99/p999 are printed. Run the server with
+ * <code>statsSeconds=N</code> to see the write calls per answer as well.
+ * <pre>
+ * java -classpath build/ server.net.GameServer 8080 coalesceMillis=2 statsSeconds=5
+ * java -classpath bench/target/benchmarks.jar benchmarks.CoalescingComparison 127.0.0.1 8080 [connections] [burst] [think ms] [seconds]
+ * </pre>
+ * @see server.net.Reactor
+ */
+public class CoalescingComparison
+{
+  public static void main(String[] args)
+  {
+    try
+    {
+      String host = args.length > 0 ? args[0] : "127.0.0.1";
+      int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+      int connections = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+      int burst = args.length > 3 ? Math.max(2, Integer.parseInt(args[3])) : 8;
+      int thinkMillis = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+      int seconds = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+
+      long end = System.nanoTime() + seconds * 1000000000L;
+      LatencyHistogram latencies = new LatencyHistogram();
+      List<Session> sessions = new ArrayList<>();
+      for (int c = 0; c < connections; c++)
+      {
+        Session session = new Session(new InetSocketAddress(host, port), burst, thinkMillis, end, latencies);
+        sessions.add(session);
+        session.start();
+      }
+      for (Session session : sessions)
+        session.join();
+
+      long count = latencies.getCount();
+      if (count == 0)
+      {
+        System.out.println("No answers.");
+        return;
+      }
+      long[] p = latencies.percentiles(50, 99, 99.9);
+      System.out.println(connections + " connections, bursts of " + burst + ", " + thinkMillis + " ms think time, " + seconds + " s");
+      System.out.printf("answers %d  p50 %d us  p99 %d us  p999 %d us%n", count, p[0] / 1000, p[1] / 1000, p[2] / 1000);
+    }
+    catch (Exception e)
+    {
+      System.out.println(e);
+    }
+  }
+
+  private static class Session extends Thread implements FrameDecoder.Handler
+  {
+    private final InetSocketAddress address;
+    private final int burst;
+    private final int thinkMillis;
+    private final long end;
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final long[] sentAt;
+    private final LatencyHistogram latencies; //shared by all connections
+    private int answered;
+    private boolean welcomed; //the session token came
+
+    private Session(InetSocketAddress address, int burst, int thinkMillis, long end, LatencyHistogram latencies)
+    {
+      this.address = address;
+      this.burst = burst;
+      this.thinkMillis = thinkMillis;
+      this.end = end;
+      this.latencies = latencies;
+      this.sentAt = new long[burst];
+    }
+
+    @Override
+    public void run()
+    {
+      try (SocketChannel channel = SocketChannel.open(address))
+      {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        ByteBuffer in = ByteBuffer.allocate(Frame.HEADER_LENGTH + Constants.MAX_MSG_LENGTH);
+        while (!welcomed)
+        {
+          //the welcome and the frame with the session token
+          in.clear();
+          if (channel.read(in) == -1)
+            throw new IOException("The server closed the connection.");
+          in.flip();
+          decoder.decode(in, this);
+        }
+
+        while (System.nanoTime() < end)
+        {
+          answered = 0;
+          for (int i = 0; i < burst; i++)
+          {
+            MsgType type = i == 0 ? MsgType.START : i == burst - 1 ? MsgType.FINISH : MsgType.GUESS;
+            ByteBuffer frame = Frame.encode(type, type == MsgType.GUESS ? String.valueOf((char) ('a' + i % 26)) : null);
+            sentAt[i] = System.nanoTime();
+            while (frame.hasRemaining())
+              channel.write(frame);
+          }
+          while (answered < burst)
+          {
+            in.clear();
+            if (channel.read(in) == -1)
+              throw new IOException("The server closed the connection.");
+            in.flip();
+            decoder.decode(in, this);
+          }
+          if (thinkMillis > 0)
+            Thread.sleep(thinkMillis);
+        }
+      }
+      catch (Exception ex)
+      {
+        System.err.println("Connection failed: " + ex.getMessage());
+      }
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame)
+    {
+      if (Frame.typeOf(frame) == MsgType.SESSION)
+      {
+        welcomed = true;
+        return;
+      }
+      latencies.record(System.nanoTime() - sentAt[answered++]);
+    }
+
+    @Override
+    public void onLegacy(ByteBuffer text)
+    {
+    }
+  }
+}
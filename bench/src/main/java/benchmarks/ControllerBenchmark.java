@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import common.*;
+import server.controller.*;
+import server.model.*;
+
+/**
+ * Benchmarks of what a worker thread does for one command: reading it from the received bytes
+ * with a <code>server.controller.CommandParser</code>, playing it on the
+ * <code>server.controller.Controller</code> and encoding the answer. The commands go round in a
+ * cycle of a START, some guesses and a FINISH, like a player would send them.
+ * @see server.controller.Controller
+ * @see server.controller.CommandParser
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ControllerBenchmark
+{
+  private static final String LETTERS = "etaoinshrdlcumwfgypbvkjxqz";
+
+  @Param({"1000", "50000", "500000"})
+  public int dictionarySize;
+
+  @Param({"4", "8", "16"})
+  public int wordLength;
+
+  private final CommandParser parser = new CommandParser();
+  private final Command command = new Command();
+  private final ByteBuffer out = ByteBuffer.allocateDirect(256); //like a buffer of the response pool
+  private Controller controller; //plays the cycle of commands
+  private Controller answering; //stays in the middle of a round, for the encoding benchmarks
+  private ByteBuffer[] frames;
+  private ByteBuffer[] texts;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    WordDictionary dictionary = Dictionaries.create(dictionarySize);
+    controller = new Controller(dictionary);
+    answering = new Controller(dictionary);
+    answering.askTheGame(MsgType.START, "len=" + wordLength);
+    answering.askTheGame(MsgType.GUESS, "e");
+
+    //fewer guesses than attempts, so a round is never lost before its FINISH
+    int guesses = Math.min(wordLength - 1, 6);
+    frames = new ByteBuffer[guesses + 2];
+    texts = new ByteBuffer[guesses + 2];
+    add(0, MsgType.START, "len=" + wordLength);
+    for(int i=0;i<guesses;i++)
+      add(i + 1, MsgType.GUESS, LETTERS.substring(i, i + 1));
+    add(guesses + 1, MsgType.FINISH, null);
+  }
+
+  private void add(int i, MsgType type, String argument)
+  {
+    frames[i] = Frame.encode(type, argument);
+    texts[i] = ByteBuffer.wrap((type + (argument != null ? Constants.MSG_DELIMETER + argument : "")).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Reads a framed command and plays it.
+   */
+  @Benchmark
+  public MsgType askTheGameFrame()
+  {
+    ByteBuffer frame = frames[next];
+    next = next + 1 == frames.length ? 0 : next + 1;
+    parser.parseFrame(frame, command);
+    controller.askTheGame(command);
+    return controller.getResultType();
+  }
+
+  /**
+   * Reads an old <code>type##payload</code> command and plays it.
+   */
+  @Benchmark
+  public MsgType askTheGameLegacy()
+  {
+    ByteBuffer text = texts[next];
+    next = next + 1 == texts.length ? 0 : next + 1;
+    parser.parseLegacy(text, command);
+    controller.askTheGame(command);
+    return controller.getResultType();
+  }
+
+  /**
+   * Encodes a RESULT answer straight into a pooled-size direct buffer, like the server does.
+   */
+  @Benchmark
+  public int writeResult()
+  {
+    out.clear();
+    answering.writeResult(out, false);
+    return out.position();
+  }
+
+  /**
+   * Encodes the same answer through its string, the way answers were made before
+   * <code>writeResult</code>, to compare the allocation.
+   */
+  @Benchmark
+  public ByteBuffer encodeResultString()
+  {
+    return Frame.encode(answering.getResultType(), answering.getResultPayload());
+  }
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import server.model.*;
+
+/**
+ * Makes words files of a given size for the benchmarks, so a run does not depend on the
+ * words.txt of the working directory. The words are random letters with lengths from
+ * <code>MIN_LENGTH</code> to <code>MAX_LENGTH</code>, the same seed gives the same file.
+ * @see server.model.WordDictionary
+ */
+final class Dictionaries
+{
+  static final int MIN_LENGTH = 3;
+  static final int MAX_LENGTH = 20;
+  private static final long SEED = 42;
+
+  private Dictionaries()
+  {
+  }
+
+  /**
+   * Writes a words file to a temporary directory and loads it.
+   * @param size Number of words.
+   * @return The loaded dictionary.
+   * @throws IOException in case of file problems.
+   */
+  static WordDictionary create(int size) throws IOException
+  {
+    Random random = new Random(SEED);
+    Path file = Files.createTempFile("words-" + size + "-", ".txt");
+    file.toFile().deleteOnExit();
+    try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII))
+    {
+      char[] word = new char[MAX_LENGTH];
+      for(int i=0;i<size;i++)
+      {
+        int length = MIN_LENGTH + random.nextInt(MAX_LENGTH - MIN_LENGTH + 1);
+        for(int c=0;c<length;c++)
+          word[c] = (char) ('a' + random.nextInt(26));
+        out.write(word, 0, length);
+        out.newLine();
+      }
+    }
+    return WordDictionary.load(file.toString());
+  }
+}
@@ -0,0 +1,113 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import common.*;
+
+/**
+ * Benchmarks of the framing: encoding a frame and decoding what a read gives, a batch of
+ * pipelined frames, frames that are split over two reads and old text messages. The payload
+ * is a guessed word of <code>wordLength</code> letters, the dictionary plays no part here.
+ * The decode benchmarks count one operation per message.
+ * @see common.Frame
+ * @see common.FrameDecoder
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FramingBenchmark
+{
+  private static final int BATCH = 32; //messages in one read
+
+  @Param({"4", "8", "16"})
+  public int wordLength;
+
+  private final FrameDecoder decoder = new FrameDecoder();
+  private final Counter counter = new Counter();
+  private String word;
+  private ByteBuffer pipelined; //BATCH frames as one read, rewound for every call
+  private ByteBuffer[] halves; //every frame of the batch split in two reads, each starting at 0
+  private ByteBuffer legacy; //one old text message
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    StringBuilder letters = new StringBuilder();
+    for(int i=0;i<wordLength;i++)
+      letters.append((char) ('a' + i % 26));
+    word = letters.toString();
+
+    ByteBuffer frame = Frame.encode(MsgType.GUESS, word);
+    pipelined = ByteBuffer.allocateDirect(frame.remaining() * BATCH);
+    halves = new ByteBuffer[BATCH * 2];
+    int half = frame.remaining() / 2;
+    for(int i=0;i<BATCH;i++)
+    {
+      pipelined.put(frame.duplicate());
+      halves[2 * i] = frame.duplicate().limit(half);
+      halves[2 * i + 1] = frame.duplicate().position(half).slice();
+    }
+    pipelined.flip();
+    legacy = ByteBuffer.wrap((MsgType.GUESS + Constants.MSG_DELIMETER + word).getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public ByteBuffer encode()
+  {
+    return Frame.encode(MsgType.GUESS, word);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int decodePipelined() throws Exception
+  {
+    counter.messages = 0;
+    decoder.decode(pipelined.rewind(), counter);
+    return counter.messages;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int decodeSplit() throws Exception
+  {
+    counter.messages = 0;
+    for(ByteBuffer part : halves)
+      decoder.decode(part.rewind(), counter);
+    return counter.messages;
+  }
+
+  @Benchmark
+  public int decodeLegacy() throws Exception
+  {
+    counter.messages = 0;
+    decoder.decode(legacy.rewind(), counter);
+    return counter.messages;
+  }
+
+  /**
+   * Counts the messages and reads their type, like a player would before copying them.
+   */
+  private static final class Counter implements FrameDecoder.Handler
+  {
+    private int messages;
+
+    @Override
+    public void onFrame(ByteBuffer frame)
+    {
+      if(Frame.typeOf(frame) != null)
+        messages++;
+    }
+
+    @Override
+    public void onLegacy(ByteBuffer text)
+    {
+      if(text.hasRemaining())
+        messages++;
+    }
+  }
+}
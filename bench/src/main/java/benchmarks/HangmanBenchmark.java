@@ -0,0 +1,93 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import server.model.*;
+
+/**
+ * Benchmarks of the game itself: picking words and guessing. A round ends after a few guesses,
+ * the guess benchmarks start the next round inside the measured call when that happens, so a
+ * little of <code>startGame</code> is in their numbers.
+ * @see server.model.Hangman
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HangmanBenchmark
+{
+  private static final String[] LETTERS = "etaoinshrdlcumwfgypbvkjxqz".split(""); //most common first, so rounds are won too
+
+  @Param({"1000", "50000", "500000"})
+  public int dictionarySize;
+
+  @Param({"4", "8", "16"})
+  public int wordLength;
+
+  private Hangman hangman;
+  private int nextLetter; //index in LETTERS of the next guess of this round
+  private String wrongWord; //the chosen word with its last letter changed
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    hangman = new Hangman(Dictionaries.create(dictionarySize));
+    newRound();
+  }
+
+  /**
+   * Starts a round with a word of <code>wordLength</code> letters and finishes it right away,
+   * finishing only resets a few fields.
+   */
+  @Benchmark
+  public Object startGame() throws Exception
+  {
+    hangman.finishGame();
+    hangman.startGame(wordLength, null);
+    return hangman.getChosenWord();
+  }
+
+  @Benchmark
+  public String readRandomWord()
+  {
+    return hangman.readRandomWord();
+  }
+
+  /**
+   * Guesses the letters of the alphabet one by one, the most common first.
+   */
+  @Benchmark
+  public HangmanStatus guessLetter() throws Exception
+  {
+    if(hangman.getStatus() != HangmanStatus.ONGOING)
+      newRound();
+    hangman.guess(LETTERS[nextLetter++]);
+    return hangman.getStatus();
+  }
+
+  /**
+   * Guesses a whole word that differs from the chosen one only in the last letter, the
+   * longest compare there is. Every guess costs an attempt, so the round is lost after
+   * <code>wordLength</code> guesses and a new one starts.
+   */
+  @Benchmark
+  public HangmanStatus guessWord() throws Exception
+  {
+    if(hangman.getStatus() != HangmanStatus.ONGOING)
+      newRound();
+    hangman.guess(wrongWord);
+    return hangman.getStatus();
+  }
+
+  private void newRound() throws Exception
+  {
+    hangman.finishGame();
+    hangman.startGame(wordLength, null);
+    String chosen = hangman.getChosenWord();
+    char last = chosen.charAt(chosen.length() - 1);
+    wrongWord = chosen.substring(0, chosen.length() - 1) + (last == 'z' ? 'a' : (char) (last + 1));
+    nextLetter = 0;
+  }
+}
@@ -0,0 +1,4 @@
+/**
+ * benchmarks package, JMH benchmarks of the server hot paths, built by bench/pom.xml
+ */
+package benchmarks;
@@ -0,0 +1,106 @@
+package server.net;
+
+import java.util.concurrent.*;
+import common.*;
+import server.controller.*;
+import server.model.*;
+
+/**
+ * Compares the execution modes side by side. Many sessions, each with its own controller and
+ * mailbox, get a stream of START/GUESS/FINISH commands and the throughput and the latency from
+ * submitting a command to its end are printed for every mode. A blocking call, like a database
+ * write, can be simulated to see how the modes behave when commands wait. A mode that the
+ * runtime does not have, like virtual threads before Java 21, is skipped.
+ * <p>
+ * It is built by the bench module, in the package of the modes so it can make them, not by
+ * the makefile of the server. It plays the words.txt of the working directory:
+ * <pre>
+ * java -classpath bench/target/benchmarks.jar server.net.ExecutionModeComparison [sessions] [commands per session] [blocking ms]
+ * </pre>
+ * @see server.net.ExecutionMode
+ * @see common.LatencyHistogram
+ */
+public class ExecutionModeComparison
+{
+  public static void main(String[] args)
+  {
+    try
+    {
+      int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+      int commands = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+      int blockMillis = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+      WordDictionary dictionary = WordDictionary.load(GameServer.WORDS_FILE_PATH);
+      System.out.println(sessions + " sessions, " + commands + " commands each, " + blockMillis + " ms blocking per command");
+      System.out.println("mode      commands/s    p50 us    p99 us   p999 us");
+
+      for (ExecutionMode mode : ExecutionMode.values())
+      {
+        if (!mode.isAvailable())
+        {
+          System.out.printf("%-8s skipped, not available on Java %d%n", mode, Runtime.version().feature());
+          continue;
+        }
+        run(mode, dictionary, sessions, commands, blockMillis, false); //warm up
+        run(mode, dictionary, sessions, commands, blockMillis, true);
+      }
+      System.exit(0);
+    }
+    catch (Exception e)
+    {
+      System.out.println(e);
+    }
+  }
+
+  private static void run(ExecutionMode mode, WordDictionary dictionary, int sessions, int commands, int blockMillis, boolean print) throws Exception
+  {
+    Executor executor = mode.createExecutor();
+    Controller[] controllers = new Controller[sessions];
+    SerialExecutor[] mailboxes = new SerialExecutor[sessions];
+    for (int s = 0; s < sessions; s++)
+    {
+      controllers[s] = new Controller(dictionary);
+      mailboxes[s] = new SerialExecutor(executor);
+    }
+
+    LatencyHistogram latencies = new LatencyHistogram();
+    CountDownLatch done = new CountDownLatch(sessions * commands);
+    long start = System.nanoTime();
+    for (int c = 0; c < commands; c++)
+    {
+      for (int s = 0; s < sessions; s++)
+      {
+        Controller controller = controllers[s];
+        MsgType type = c % 10 == 0 ? MsgType.START : c % 10 == 9 ? MsgType.FINISH : MsgType.GUESS;
+        String argument = type == MsgType.GUESS ? String.valueOf((char) ('a' + c % 26)) : null;
+        long submitted = System.nanoTime();
+        mailboxes[s].execute(() -> {
+          controller.askTheGame(type, argument);
+          if (blockMillis > 0)
+          {
+            try
+            {
+              Thread.sleep(blockMillis);
+            }
+            catch (InterruptedException ex)
+            {
+              Thread.currentThread().interrupt();
+            }
+          }
+          latencies.record(System.nanoTime() - submitted);
+          done.countDown();
+        });
+      }
+    }
+    done.await();
+    long took = System.nanoTime() - start;
+
+    if (executor instanceof ExecutorService && executor != ForkJoinPool.commonPool())
+      ((ExecutorService) executor).shutdown();
+
+    if (!print)
+      return;
+    long[] p = latencies.percentiles(50, 99, 99.9);
+    System.out.printf("%-8s %11.0f %9d %9d %9d%n", mode, latencies.getCount() * 1e9 / took, p[0] / 1000, p[1] / 1000, p[2] / 1000);
+  }
+}
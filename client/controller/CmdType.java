@@ -23,7 +23,27 @@ public enum CmdType {
     /**
      * This is reserved for game commands.
      */
-    DISCONNECT("disconnect");
+    DISCONNECT("disconnect"),
+    /**
+     * Take back the session of a token, the last connection's one if none is given.
+     */
+    RESUME("resume"),
+    /**
+     * Ask for the best players and the own rank, optionally how many players.
+     */
+    LEADERBOARD("leaderboard"),
+    /**
+     * Ask for the traffic and latency counters of the server.
+     */
+    STATS("stats"),
+    /**
+     * Join the room of a name, start, guess and finish go to its shared game.
+     */
+    JOIN("join"),
+    /**
+     * Leave the room and go back to the own game.
+     */
+    LEAVE("leave");
 
     private String name;
     private CmdType(String inp)
@@ -2,6 +2,7 @@ package client.controller;
 
 import java.math.*;
 import java.lang.*;
+import java.util.*;
 import java.util.regex.*;
 import client.view.*;
 import client.net.*;
@@ -14,7 +15,7 @@ import common.*;
  * available in <code>client.controller.CmdType</code>. If its not matched, an error message will be shown.
  * for the commands that needs communication with the server we use <code>common.MsgType</code>
  * We have <code>client.view.SafeOutput</code> reference for printing error and exceptions.
- * defiend message types.
+ * defiend message types. Game commands separated by <code>;</code> are sent together in one batch.
  * @see client.net.ServerConnection
  * @see client.controller.CmdType
  * @see common.MsgType
@@ -22,6 +23,7 @@ import common.*;
  */
 public class Controller
 {
+  private static final String COMMAND_SEPARATOR = ";"; //separates commands that are sent together
   private SafeOutput safeOut;
   private final ServerConnection serverCon = new ServerConnection();
 
@@ -85,6 +87,12 @@ public class Controller
       return;
     }
 
+    if(cmd.contains(COMMAND_SEPARATOR))
+    {
+      handleBatch(cmd);
+      return;
+    }
+
     String[] splited = cmd.split(" ");
     if(splited[0].equals(CmdType.CONNECT.toString()))
     {
@@ -107,40 +115,68 @@ public class Controller
       serverCon.connect(splited[1],Integer.parseInt(splited[2]),safeOut);
 
     }
-    else if(splited[0].equals(CmdType.START.toString()))
+    else if(splited[0].equals(CmdType.DISCONNECT.toString()))
     {
       if(!serverCon.getConnected())
-        throw new Exception("First you should connect to the server: " + splited[0]);
+        throw new Exception("You are not connected to any server: " + splited[0]);
 
       if(splited.length>1)
         throw new Exception("Too much arguments in: " + splited[0]);
 
-      //start code
-      serverCon.sendMessage(MsgType.START.toString());
+      //finish code
+      serverCon.disconnect();
     }
-    else if(splited[0].equals(CmdType.FINISH.toString()))
+    else if(splited[0].equals(CmdType.GUESS.toString()))
     {
       if(!serverCon.getConnected())
         throw new Exception("First you should connect to the server: " + splited[0]);
 
-      if(splited.length>1)
+      if(splited.length<2)
+        throw new Exception("Not enough arguments in: " + splited[0]);
+
+      if(splited.length>2)
         throw new Exception("Too much arguments in: " + splited[0]);
 
-      //finish code
-      serverCon.sendMessage(MsgType.FINISH.toString());
+      //guess code
+      serverCon.sendMessage(MsgType.GUESS, splited[1]);
     }
-    else if(splited[0].equals(CmdType.DISCONNECT.toString()))
+    else if(splited[0].equals(CmdType.RESUME.toString()))
     {
       if(!serverCon.getConnected())
-        throw new Exception("You are not connected to any server: " + splited[0]);
+        throw new Exception("First you should connect to the server: " + splited[0]);
+
+      if(splited.length>2)
+        throw new Exception("Too much arguments in: " + splited[0]);
+
+      //resume code, the token of the last connection if none is given
+      String token = splited.length>1 ? splited[1] : serverCon.getPreviousSessionToken();
+      if(token == null)
+        throw new Exception("There is no earlier session to resume: " + splited[0]);
+      serverCon.resume(token);
+    }
+    else if(splited[0].equals(CmdType.LEADERBOARD.toString()))
+    {
+      if(!serverCon.getConnected())
+        throw new Exception("First you should connect to the server: " + splited[0]);
+
+      if(splited.length>2)
+        throw new Exception("Too much arguments in: " + splited[0]);
+
+      //leaderboard code, optional number of players
+      serverCon.sendMessage(MsgType.LEADERBOARD, splited.length>1 ? splited[1] : null);
+    }
+    else if(splited[0].equals(CmdType.STATS.toString()))
+    {
+      if(!serverCon.getConnected())
+        throw new Exception("First you should connect to the server: " + splited[0]);
 
       if(splited.length>1)
         throw new Exception("Too much arguments in: " + splited[0]);
 
-      //finish code
-      serverCon.disconnect();
+      //stats code, the counters of the server
+      serverCon.sendMessage(MsgType.STATS, null);
     }
-    else if(splited[0].equals(CmdType.GUESS.toString()))
+    else if(splited[0].equals(CmdType.JOIN.toString()))
     {
       if(!serverCon.getConnected())
         throw new Exception("First you should connect to the server: " + splited[0]);
@@ -151,12 +187,102 @@ public class Controller
       if(splited.length>2)
         throw new Exception("Too much arguments in: " + splited[0]);
 
-      //guess code
-      serverCon.sendMessage(MsgType.GUESS.toString()+Constants.MSG_DELIMETER+splited[1]);
+      //join code, start, guess and finish go to the room until it is left
+      serverCon.sendMessage(MsgType.JOIN, splited[1]);
+    }
+    else if(splited[0].equals(CmdType.LEAVE.toString()))
+    {
+      if(!serverCon.getConnected())
+        throw new Exception("First you should connect to the server: " + splited[0]);
+
+      if(splited.length>1)
+        throw new Exception("Too much arguments in: " + splited[0]);
+
+      //leave code
+      serverCon.sendMessage(MsgType.LEAVE, null);
+    }
+    else if(isGameCommand(splited[0]))
+    {
+      if(!serverCon.getConnected())
+        throw new Exception("First you should connect to the server: " + splited[0]);
+
+      ServerConnection.Batch batch = new ServerConnection.Batch();
+      addGameCommand(batch, splited);
+      serverCon.sendBatch(batch);
     }
     else
       throw new Exception("This command is unknown: " + splited[0]);
 
   }
 
+  /**
+   * Sends game commands separated by <code>;</code> together, for example
+   * <code>start len=5; guess e; guess a</code>. The server answers them in order.
+   * @exception Exception in case of wrong syntax commands, then nothing is sent
+   * @param cmd It is the line with the commands
+   */
+  private void handleBatch(String cmd) throws Exception
+  {
+    if(!serverCon.getConnected())
+      throw new Exception("First you should connect to the server: " + cmd);
+
+    ServerConnection.Batch batch = new ServerConnection.Batch();
+    for(String part : cmd.split(COMMAND_SEPARATOR))
+    {
+      String trimmed = part.trim();
+      if(trimmed.isEmpty())
+        continue;
+      String[] splited = trimmed.split(" ");
+      if(!isGameCommand(splited[0]))
+        throw new Exception("Only start, guess and finish can be sent together: " + splited[0]);
+      addGameCommand(batch, splited);
+    }
+    serverCon.sendBatch(batch);
+  }
+
+  private Boolean isGameCommand(String name)
+  {
+    return name.equals(CmdType.START.toString()) || name.equals(CmdType.GUESS.toString()) || name.equals(CmdType.FINISH.toString());
+  }
+
+  /**
+   * Checks the arguments of a START, GUESS or FINISH command and adds it to the batch.
+   * @exception Exception in case of wrong syntax commands
+   * @param batch the batch to add the command to
+   * @param splited the command split on spaces
+   */
+  private void addGameCommand(ServerConnection.Batch batch, String[] splited) throws Exception
+  {
+    if(splited[0].equals(CmdType.START.toString()))
+    {
+      if(splited.length>3)
+        throw new Exception("Too much arguments in: " + splited[0]);
+
+      //start code, optional len=N and easy/medium/hard are passed to the server
+      if(splited.length>1)
+        batch.add(MsgType.START, String.join(" ", Arrays.copyOfRange(splited, 1, splited.length)));
+      else
+        batch.add(MsgType.START, null);
+    }
+    else if(splited[0].equals(CmdType.FINISH.toString()))
+    {
+      if(splited.length>1)
+        throw new Exception("Too much arguments in: " + splited[0]);
+
+      //finish code
+      batch.add(MsgType.FINISH, null);
+    }
+    else
+    {
+      if(splited.length<2)
+        throw new Exception("Not enough arguments in: " + splited[0]);
+
+      if(splited.length>2)
+        throw new Exception("Too much arguments in: " + splited[0]);
+
+      //guess code
+      batch.add(MsgType.GUESS, splited[1]);
+    }
+  }
+
 }
@@ -0,0 +1,477 @@
+package client.net;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import common.*;
+
+/**
+ * A headless client that plays many games at once, to load the server and see where it
+ * saturates. A few worker threads each own a selector and a share of the connections, all
+ * non-blocking, so thousands of players need only a handful of threads. Messages are framed
+ * with <code>common.Frame</code> and read back with a <code>common.FrameDecoder</code> per
+ * connection, like <code>client.net.ServerConnection</code> does.
+ * <p>
+ * Every player waits for the welcome and the <code>SESSION</code> frame with its token, then plays rounds: START, GUESS
+ * letters until the word is found or the attempts are over, and FINISH every few rounds. A
+ * scripted player guesses the most common letters first, a random player guesses the letters
+ * in a new random order every round. There is one command in flight per player, after each
+ * answer the player thinks for a random time around <code>thinkMillis</code>.
+ * <p>
+ * The time from writing a command to reading its answer is counted in one
+ * <code>common.LatencyHistogram</code>, which the workers share without waiting for each
+ * other. A line is printed every second and the throughput and p50/p99/p999 are printed at
+ * the end. The settings are <code>name=value</code> pairs, for example
+ * <pre>
+ * java -classpath build/ client.net.LoadGenerator port=8080 connections=5000 selectors=4 thinkMillis=100 seconds=30
+ * </pre>
+ * @see client.net.ServerConnection
+ * @see common.FrameDecoder
+ */
+public class LoadGenerator
+{
+  private static final String COMMON_LETTERS = "etaoinshrdlcumwfgypbvkjxqz";
+  private static final byte FREE_WORD_CHAR = '_';
+
+  private String host = "127.0.0.1";
+  private int port = 8080;
+  private int connections = 1000;
+  private int selectors = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  private int thinkMillis = 100; //mean think time, every pause is between half and one and a half of it
+  private int seconds = 30; //measured time, after the warmup
+  private int warmupSeconds = 5; //answers of this first part are not counted, connections are opened meanwhile
+  private int connectRate = 2000; //new connections per second, the accept backlog of the server is small
+  private int wordLength = 0; //len= of START, 0 for any length
+  private int finishEvery = 5; //rounds between two FINISH commands
+  private boolean random = false; //random or scripted order of the guesses
+
+  private final LongAdder connected = new LongAdder();
+  private final LongAdder connectFailures = new LongAdder();
+  private final LongAdder closedByServer = new LongAdder();
+  private final LongAdder answers = new LongAdder(); //warmup included, for the lines printed every second
+  private final LongAdder errors = new LongAdder();
+  private final LatencyHistogram latencies = new LatencyHistogram(); //measured answers of all workers
+
+  public static void main(String[] args)
+  {
+    try
+    {
+      LoadGenerator load = parse(args);
+      if (load != null)
+        load.run();
+    }
+    catch (Exception e)
+    {
+      System.out.println(e);
+    }
+  }
+
+  private static LoadGenerator parse(String[] args)
+  {
+    LoadGenerator load = new LoadGenerator();
+    for (String arg : args)
+    {
+      String[] pair = arg.split("=", 2);
+      if (pair.length != 2)
+      {
+        System.err.println("Unknown argument: " + arg);
+        return null;
+      }
+      switch (pair[0])
+      {
+      case "host": load.host = pair[1]; break;
+      case "port": load.port = Integer.parseInt(pair[1]); break;
+      case "connections": load.connections = Integer.parseInt(pair[1]); break;
+      case "selectors": load.selectors = Math.max(1, Integer.parseInt(pair[1])); break;
+      case "thinkMillis": load.thinkMillis = Integer.parseInt(pair[1]); break;
+      case "seconds": load.seconds = Integer.parseInt(pair[1]); break;
+      case "warmupSeconds": load.warmupSeconds = Integer.parseInt(pair[1]); break;
+      case "connectRate": load.connectRate = Math.max(1, Integer.parseInt(pair[1])); break;
+      case "wordLength": load.wordLength = Integer.parseInt(pair[1]); break;
+      case "finishEvery": load.finishEvery = Math.max(1, Integer.parseInt(pair[1])); break;
+      case "mode":
+        if (!pair[1].equals("random") && !pair[1].equals("scripted"))
+        {
+          System.err.println("The mode should be random or scripted: " + pair[1]);
+          return null;
+        }
+        load.random = pair[1].equals("random");
+        break;
+      default:
+        System.err.println("Unknown argument: " + arg);
+        return null;
+      }
+    }
+    return load;
+  }
+
+  private void run() throws Exception
+  {
+    System.out.println(connections + " connections to " + host + ":" + port + " on " + selectors + " selectors, "
+        + (random ? "random" : "scripted") + " players, " + thinkMillis + " ms think time, "
+        + warmupSeconds + " s warmup, " + seconds + " s measured");
+
+    long start = System.nanoTime();
+    long measureFrom = start + warmupSeconds * 1000000000L;
+    long end = measureFrom + seconds * 1000000000L;
+    Worker[] workers = new Worker[selectors];
+    Thread[] threads = new Thread[selectors];
+    for (int w = 0; w < selectors; w++)
+    {
+      int share = connections / selectors + (w < connections % selectors ? 1 : 0);
+      workers[w] = new Worker(share, Math.max(1, connectRate / selectors), measureFrom, end, w);
+      threads[w] = new Thread(workers[w], "load-" + w);
+      threads[w].start();
+    }
+
+    long lastAnswers = 0;
+    long peakConnected = 0;
+    for (int s = 1; System.nanoTime() < end; s++)
+    {
+      Thread.sleep(Math.max(0, Math.min(1000, (end - System.nanoTime()) / 1000000)));
+      long now = answers.sum();
+      peakConnected = Math.max(peakConnected, connected.sum());
+      System.out.println(String.format("%3d s  connected %6d  answers/s %8d  errors %d  closed by server %d",
+          s, connected.sum(), now - lastAnswers, errors.sum(), closedByServer.sum()));
+      lastAnswers = now;
+    }
+
+    for (int w = 0; w < selectors; w++)
+      threads[w].join();
+    long count = latencies.getCount();
+    System.out.println("connected at most " + peakConnected + " of " + connections + ", connect failures " + connectFailures.sum()
+        + ", closed by server " + closedByServer.sum() + ", errors " + errors.sum());
+    if (count == 0)
+    {
+      System.out.println("No answers.");
+      return;
+    }
+    long[] p = latencies.percentiles(50, 99, 99.9);
+    System.out.printf("answers %d  throughput %.0f/s  p50 %d us  p99 %d us  p999 %d us  max %d us%n", count,
+        count / (double) seconds, p[0] / 1000, p[1] / 1000, p[2] / 1000, latencies.getMax() / 1000);
+  }
+
+  /**
+   * One selector thread and its players. Everything of a worker is only used by its thread,
+   * only the shared counters are read by the main thread.
+   */
+  private class Worker implements Runnable
+  {
+    private final int toOpen;
+    private final long connectIntervalNanos;
+    private final long measureFrom;
+    private final long end;
+    private final SplittableRandom randomness;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(Frame.HEADER_LENGTH + Constants.MAX_MSG_LENGTH);
+    private final PriorityQueue<Bot> thinking = new PriorityQueue<>((a, b) -> Long.compare(a.due, b.due));
+    private final List<Bot> bots = new ArrayList<>();
+    private final ByteBuffer startFrame = Frame.encode(MsgType.START, wordLength > 0 ? "len=" + wordLength : null);
+    private final ByteBuffer finishFrame = Frame.encode(MsgType.FINISH, null);
+    private final ByteBuffer[] guessFrames = new ByteBuffer[26]; //index is the letter
+    private Selector selector;
+    private int opened;
+    private long nextConnect;
+
+    private Worker(int toOpen, int connectRate, long measureFrom, long end, int index)
+    {
+      this.toOpen = toOpen;
+      this.connectIntervalNanos = 1000000000L / connectRate;
+      this.measureFrom = measureFrom;
+      this.end = end;
+      this.randomness = new SplittableRandom(index * 7919L + 1);
+      for (int l = 0; l < 26; l++)
+        guessFrames[l] = Frame.encode(MsgType.GUESS, String.valueOf((char) ('a' + l)));
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        selector = Selector.open();
+        nextConnect = System.nanoTime();
+        long now;
+        while ((now = System.nanoTime()) < end)
+        {
+          openConnections(now);
+          Bot bot;
+          while ((bot = thinking.peek()) != null && bot.due - now <= 0)
+          {
+            thinking.remove();
+            bot.sendNext(now);
+          }
+
+          long wake = end;
+          if (opened < toOpen)
+            wake = Math.min(wake, nextConnect);
+          if (bot != null)
+            wake = Math.min(wake, bot.due);
+          long waitMillis = Math.max(1, (wake - now + 999999) / 1000000);
+          selector.select(waitMillis);
+
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext())
+          {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Bot ready = (Bot) key.attachment();
+            try
+            {
+              if (key.isValid() && key.isConnectable())
+                ready.finishConnect();
+              if (key.isValid() && key.isReadable())
+                ready.read();
+              if (key.isValid() && key.isWritable())
+                ready.write();
+            }
+            catch (IOException ex)
+            {
+              ready.close(ready.connectedAt != 0 ? closedByServer : connectFailures);
+            }
+          }
+        }
+      }
+      catch (IOException ex)
+      {
+        System.err.println("Load worker failure: " + ex);
+      }
+      finally
+      {
+        for (Bot bot : bots)
+          bot.close(null);
+      }
+    }
+
+    /**
+     * Opens the connections that are due by the connect rate.
+     */
+    private void openConnections(long now)
+    {
+      while (opened < toOpen && nextConnect - now <= 0)
+      {
+        opened++;
+        nextConnect += connectIntervalNanos;
+        Bot bot = new Bot(this);
+        try
+        {
+          bot.channel = SocketChannel.open();
+          bot.channel.configureBlocking(false);
+          bot.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+          bot.key = bot.channel.register(selector, SelectionKey.OP_CONNECT, bot);
+          bots.add(bot);
+          if (bot.channel.connect(new InetSocketAddress(host, port)))
+            bot.finishConnect();
+        }
+        catch (IOException ex)
+        {
+          bot.close(connectFailures);
+        }
+      }
+    }
+
+    private long think()
+    {
+      return thinkMillis == 0 ? 0 : (thinkMillis / 2 + randomness.nextInt(thinkMillis + 1)) * 1000000L;
+    }
+  }
+
+  /**
+   * One player. It keeps one command in flight and chooses the next command from the answer.
+   */
+  private class Bot implements FrameDecoder.Handler
+  {
+    private final Worker worker;
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final ByteBuffer out = ByteBuffer.allocate(Frame.HEADER_LENGTH + 16); //the command being written
+    private final byte[] letters = COMMON_LETTERS.getBytes(StandardCharsets.US_ASCII); //guesses of the round in order
+    private SocketChannel channel;
+    private SelectionKey key;
+    private long connectedAt; //0 until the connection is made
+    private boolean welcomed; //the session token came
+    private long sentAt; //0 when no command is in flight
+    private long due; //when thinking is over, while in the queue
+    private MsgType last = MsgType.FINISH; //type of the last command, null after an error
+    private int nextLetter;
+    private int rounds; //rounds played since the last FINISH
+    private int roundsAtStart; //rounds when the current round started
+    private boolean closed;
+
+    private Bot(Worker worker)
+    {
+      this.worker = worker;
+    }
+
+    private void finishConnect() throws IOException
+    {
+      if (!channel.finishConnect())
+        return;
+      connectedAt = System.nanoTime();
+      connected.increment();
+      key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void read() throws IOException
+    {
+      ByteBuffer in = worker.readBuffer;
+      in.clear();
+      if (channel.read(in) == -1)
+        throw new EOFException();
+      in.flip();
+      decoder.decode(in, this);
+    }
+
+    /**
+     * The welcome is the only text message, the player waits for the token after it.
+     */
+    @Override
+    public void onLegacy(ByteBuffer text)
+    {
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame)
+    {
+      if (!welcomed && Frame.typeOf(frame) == MsgType.SESSION)
+      {
+        welcomed = true;
+        think();
+        return;
+      }
+      if (sentAt == 0)
+        return;
+      long now = System.nanoTime();
+      if (sentAt - worker.measureFrom >= 0)
+        latencies.record(now - sentAt);
+      answers.increment();
+      sentAt = 0;
+
+      MsgType type = Frame.typeOf(frame);
+      if (type == MsgType.ERROR)
+      {
+        errors.increment();
+        last = null; //start over with FINISH
+      }
+      else if (type == MsgType.RESULT && (last == MsgType.START || last == MsgType.GUESS) && roundOver(frame))
+      {
+        rounds++;
+      }
+      else if (type == MsgType.RESULT && last == MsgType.FINISH)
+      {
+        rounds = 0;
+      }
+      think();
+    }
+
+    /**
+     * The masked word is the first word of a RESULT, the round is over when it has no free
+     * places left, after a win and after a loss.
+     */
+    private boolean roundOver(ByteBuffer frame)
+    {
+      int from = frame.position() + Frame.HEADER_LENGTH;
+      int to = frame.limit();
+      for (int i = from; i < to && frame.get(i) != ' '; i++)
+        if (frame.get(i) == FREE_WORD_CHAR)
+          return false;
+      return true;
+    }
+
+    private void think()
+    {
+      due = System.nanoTime() + worker.think();
+      worker.thinking.add(this);
+    }
+
+    /**
+     * Sends the next command of the script.
+     */
+    private void sendNext(long now) throws IOException
+    {
+      if (closed)
+        return;
+      ByteBuffer frame;
+      if (last == null || (last != MsgType.FINISH && rounds >= finishEvery))
+      {
+        frame = worker.finishFrame;
+        last = MsgType.FINISH;
+      }
+      else if (last == MsgType.FINISH || roundEnded())
+      {
+        frame = worker.startFrame;
+        last = MsgType.START;
+        newRound();
+      }
+      else
+      {
+        frame = worker.guessFrames[letters[nextLetter++] - 'a'];
+        last = MsgType.GUESS;
+      }
+      out.clear();
+      out.put(0, frame, 0, frame.limit()).limit(frame.limit());
+      sentAt = now;
+      try
+      {
+        write();
+      }
+      catch (IOException ex)
+      {
+        close(closedByServer);
+      }
+    }
+
+    private boolean roundEnded()
+    {
+      return rounds != roundsAtStart || nextLetter == letters.length;
+    }
+
+    private void newRound()
+    {
+      roundsAtStart = rounds;
+      nextLetter = 0;
+      if (random)
+      {
+        for (int i = letters.length - 1; i > 0; i--)
+        {
+          int j = worker.randomness.nextInt(i + 1);
+          byte swap = letters[i];
+          letters[i] = letters[j];
+          letters[j] = swap;
+        }
+      }
+    }
+
+    private void write() throws IOException
+    {
+      channel.write(out);
+      key.interestOps(out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Closes the connection once.
+     * @param reason The counter of the reason, null when the run is over.
+     */
+    private void close(LongAdder reason)
+    {
+      if (closed)
+        return;
+      closed = true;
+      if (reason != null)
+        reason.increment();
+      if (connectedAt != 0)
+        connected.decrement();
+      try
+      {
+        if (channel != null)
+          channel.close();
+      }
+      catch (IOException ex)
+      {
+        //closing anyway
+      }
+    }
+  }
+}
@@ -24,13 +24,20 @@ import java.nio.channels.SocketChannel;
  * to take care of the responses of the server and printing them using <code>client.view.SafeOutput</code>.
  * there are 2 staic parameters that should be initialised, <code>TIMEOUT_TIME_HOUR</code> and
  * <code>TIMEOUT_TIME_MIN</code>.
+ * Messages are sent as frames described in <code>common.Frame</code>, and the answers are put
+ * together by a <code>common.FrameDecoder</code>, so split or merged TCP segments are handled.
+ * Several commands can be sent at once with <code>sendBatch</code>, the server runs them in
+ * order and answers them together. The session token that follows the welcome is kept,
+ * so the game can be resumed on the next connection.
  * @see client.view.SafeOutput
  * @see client.net.ServerConnection.Listener
+ * @see common.Frame
  */
-public class ServerConnection implements Runnable
+public class ServerConnection implements Runnable, FrameDecoder.Handler
 {
 
     private final ByteBuffer serverMessage = ByteBuffer.allocateDirect(Constants.MAX_MSG_LENGTH);
+    private final FrameDecoder decoder = new FrameDecoder();
     private final Queue<ByteBuffer> clientMessage = new ArrayDeque<>();
 
     //HERHERHEHREHRHE
@@ -38,6 +45,8 @@ public class ServerConnection implements Runnable
 
     private volatile Boolean isConnected = false;
     private volatile boolean isTimeToSend = false;
+    private volatile String sessionToken; //token of this connection's session
+    private volatile String previousSessionToken; //token of the connection before, to resume it
 
 
     private SocketChannel socketChannel;
@@ -141,30 +150,9 @@ public class ServerConnection implements Runnable
                             System.err.println("Connection terminated.");
                         }
 
-                        //extract message from buffer
+                        //extract messages from buffer
                         serverMessage.flip();
-                        int cap = serverMessage.remaining();
-                        byte[] bytes = new byte[cap];
-                        serverMessage.get(bytes);
-                        String fromServerString = new String(bytes);
-
-
-                        //System.out.println(fromServerString);
-
-                        //notifyMsgReceived();
-                        Executor pool = ForkJoinPool.commonPool();
-                        for (Listener listener : listeners)
-                        {
-                            pool.execute(new Runnable()
-                            {
-                                @Override
-                                public void run()
-                                {
-                                    listener.recievedMessage(fromServerString);
-                                }
-                            });
-                        }
-
+                        decoder.decode(serverMessage, this);
                     }
                     else if (key.isWritable())
                     {
@@ -177,11 +165,14 @@ public class ServerConnection implements Runnable
                                 socketChannel.write(tMessage);
                                 if (tMessage.hasRemaining())
                                 {
-                                    return;
+                                    break; //the socket is full, go on with the next OP_WRITE
                                 }
                                 clientMessage.remove();
                             }
-                            key.interestOps(SelectionKey.OP_READ);
+                            if (clientMessage.isEmpty())
+                            {
+                                key.interestOps(SelectionKey.OP_READ);
+                            }
                         }
                     }
                 }
@@ -233,17 +224,96 @@ public class ServerConnection implements Runnable
     }
 
     /**
-     * Sends the message to the server.
+     * Called by the decoder for every complete frame from the server.
+     */
+    @Override
+    public void onFrame(ByteBuffer frame)
+    {
+        if (Frame.typeOf(frame) == MsgType.SESSION)
+        {
+            previousSessionToken = sessionToken;
+            sessionToken = Frame.payloadOf(frame);
+        }
+        notifyMsgReceived(Frame.typeOf(frame) + Constants.MSG_DELIMETER + Frame.payloadOf(frame));
+    }
+
+    /**
+     * Called by the decoder for every text message from the server, like the welcome.
+     */
+    @Override
+    public void onLegacy(ByteBuffer text)
+    {
+        notifyMsgReceived(Frame.textOf(text));
+    }
+
+    /**
+     * Getter for the session token of the connection before this one
+     * @return The token to resume with, null if there was no connection before.
+     */
+    public String getPreviousSessionToken()
+    {
+        return previousSessionToken;
+    }
+
+    /**
+     * Asks the server to continue the session of the token on this connection. From now on
+     * the token is the one of this connection.
      *
-     * @param inp The message wants to be sent.
+     * @param token The token of the session.
      */
-    public void sendMessage(String inp)
+    public void resume(String token)
     {
-        //String inp2 = MessageSplitter.prependLengthHeader(inp);
-        String inp2 = inp;
+        sessionToken = token;
+        sendMessage(MsgType.RESUME, token);
+    }
+
+    private void notifyMsgReceived(String fromServerString)
+    {
+        Executor pool = ForkJoinPool.commonPool();
+        for (Listener listener : listeners)
+        {
+            pool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    listener.recievedMessage(fromServerString);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends the message to the server as a frame.
+     *
+     * @param type The type of the message.
+     * @param payload The payload of the message, may be null.
+     */
+    public void sendMessage(MsgType type, String payload)
+    {
+        synchronized (clientMessage)
+        {
+            clientMessage.add(Frame.encode(type, payload));
+        }
+        selector.wakeup();
+        isTimeToSend = true;
+    }
+
+    /**
+     * Sends all commands of the batch to the server with one write, without waiting for the
+     * answers in between. The answers come back in the same order.
+     *
+     * @param batch The commands to send.
+     */
+    public void sendBatch(Batch batch)
+    {
+        if (batch.size() == 0)
+        {
+            return;
+        }
         synchronized (clientMessage)
         {
-            clientMessage.add(ByteBuffer.wrap(inp2.getBytes()));
+            clientMessage.add(batch.encode());
         }
         selector.wakeup();
         isTimeToSend = true;
@@ -258,7 +328,7 @@ public class ServerConnection implements Runnable
         {
           if(isConnected)
           {
-              sendMessage("DISCONNECT");
+              sendMessage(MsgType.DISCONNECT, null);
               socketChannel.close();
               socketChannel.keyFor(selector).cancel();
 
@@ -291,6 +361,50 @@ public class ServerConnection implements Runnable
       pool.shutdownNow();
     }
 
+    /**
+    * Commands to be sent together with <code>sendBatch</code>. Every command is encoded as a
+    * frame when it is added.
+    */
+    public static class Batch
+    {
+        private final List<ByteBuffer> frames = new ArrayList<>();
+        private int length;
+
+        /**
+         * Adds a command to the batch.
+         * @param type The type of the message.
+         * @param payload The payload of the message, may be null.
+         * @return This batch.
+         */
+        public Batch add(MsgType type, String payload)
+        {
+            ByteBuffer frame = Frame.encode(type, payload);
+            frames.add(frame);
+            length += frame.remaining();
+            return this;
+        }
+
+        /**
+         * Getter for the number of commands
+         * @return Return the number of commands in the batch
+         */
+        public int size()
+        {
+            return frames.size();
+        }
+
+        private ByteBuffer encode()
+        {
+            ByteBuffer all = ByteBuffer.allocate(length);
+            for (ByteBuffer frame : frames)
+            {
+                all.put(frame.duplicate());
+            }
+            all.flip();
+            return all;
+        }
+    }
+
     /**
     * We create This class on a separete thread in order to take care of the
     * responses of the server and printing them using <code>client.view.SafeOutput</code>.
@@ -0,0 +1,102 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Defines the framed wire format used by both client and server. Every message is
+ * <pre>
+ * int  length of the payload (big endian)
+ * byte type, the ordinal of common.MsgType
+ * byte[] payload, UTF-8 text
+ * </pre>
+ * The payload is never longer than <code>Constants.MAX_MSG_LENGTH</code>, so the first byte
+ * of a frame is always 0. The old text messages (<code>type##payload</code>) never contain
+ * a 0 byte, which is how <code>common.FrameDecoder</code> tells them apart.
+ * @see common.FrameDecoder
+ * @see common.MsgType
+ */
+public final class Frame
+{
+    /**
+     * Length of the header, the payload length and the type byte.
+     */
+    public static final int HEADER_LENGTH = 5;
+
+    private static final MsgType[] TYPES = MsgType.values();
+
+    private Frame()
+    {
+    }
+
+    /**
+     * Finds the message type of a type byte.
+     * @param code The type byte of a frame.
+     * @return The message type or null if the byte is unknown.
+     */
+    public static MsgType typeOf(byte code)
+    {
+        return (code >= 0 && code < TYPES.length) ? TYPES[code] : null;
+    }
+
+    /**
+     * Reads the type of a frame without moving the position.
+     * @param frame A buffer positioned at the start of a frame.
+     * @return The message type or null if the byte is unknown.
+     */
+    public static MsgType typeOf(ByteBuffer frame)
+    {
+        return typeOf(frame.get(frame.position() + 4));
+    }
+
+    /**
+     * Reads the payload of a frame as text without moving the position.
+     * @param frame A buffer positioned at the start of a frame.
+     * @return The payload.
+     */
+    public static String payloadOf(ByteBuffer frame)
+    {
+        byte[] bytes = new byte[frame.getInt(frame.position())];
+        frame.get(frame.position() + HEADER_LENGTH, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the remaining bytes of a text message without moving the position.
+     * @param text A buffer holding an old text message.
+     * @return The message.
+     */
+    public static String textOf(ByteBuffer text)
+    {
+        byte[] bytes = new byte[text.remaining()];
+        text.get(text.position(), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a message as a frame into a new buffer, ready to be written.
+     * @param type The type of the message.
+     * @param payload The payload of the message, may be null.
+     * @return The frame.
+     */
+    public static ByteBuffer encode(MsgType type, String payload)
+    {
+        byte[] bytes = payload == null ? new byte[0] : payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + bytes.length);
+        frame.putInt(bytes.length).put((byte) type.ordinal()).put(bytes);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Encodes a message in the old text format <code>type##payload</code>.
+     * @param type The type of the message.
+     * @param payload The payload of the message, may be null.
+     * @return The message ready to be written.
+     */
+    public static ByteBuffer encodeLegacy(MsgType type, String payload)
+    {
+        String text = payload == null ? type.toString() : type + Constants.MSG_DELIMETER + payload;
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,142 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reassembles messages from the bytes read from a socket. One read may hold a part of a
+ * frame, one frame or many frames, the decoder calls the handler once for every complete
+ * frame and keeps the unfinished part until the next read. Old text messages are passed to
+ * the handler as they are; a text message ends at the next frame (a 0 byte) or at the end
+ * of the read, like before framing existed.
+ * <p>
+ * The handler gets the read buffer itself, with its position and limit around the message,
+ * so nothing is copied or created for complete messages. The buffer is only valid during
+ * the call.
+ * @see common.Frame
+ */
+public class FrameDecoder
+{
+    /**
+     * Receives the decoded messages.
+     */
+    public interface Handler
+    {
+        /**
+         * Called for every complete frame.
+         * @param frame The whole frame, header included, between position and limit.
+         * @throws IOException if the connection should be closed.
+         */
+        void onFrame(ByteBuffer frame) throws IOException;
+
+        /**
+         * Called for every old <code>type##payload</code> text message.
+         * @param text The whole message between position and limit.
+         * @throws IOException if the connection should be closed.
+         */
+        void onLegacy(ByteBuffer text) throws IOException;
+    }
+
+    private ByteBuffer pending; // Unfinished frame from the previous reads, null when there is none
+
+    /**
+     * Decodes all complete messages in the buffer.
+     * @param in Bytes read from the socket, ready to be read (flipped). It is consumed completely.
+     * @param handler Receives the messages.
+     * @throws IOException in case of a frame longer than <code>Constants.MAX_MSG_LENGTH</code>.
+     */
+    public void decode(ByteBuffer in, Handler handler) throws IOException
+    {
+        if (pending != null)
+        {
+            //finish the frame from the previous read first
+            int need = pending.position() < Frame.HEADER_LENGTH
+                ? Frame.HEADER_LENGTH - pending.position()
+                : Frame.HEADER_LENGTH + pending.getInt(0) - pending.position();
+            int n = Math.min(need, in.remaining());
+            ByteBuffer part = in.duplicate();
+            part.limit(part.position() + n);
+            pending.put(part);
+            in.position(in.position() + n);
+            if (n < need)
+                return;
+            if (pending.position() == Frame.HEADER_LENGTH)
+            {
+                int length = checkLength(pending.getInt(0));
+                if (length > 0)
+                {
+                    decode(in, handler);
+                    return;
+                }
+            }
+            pending.flip();
+            deliverFrame(pending, handler);
+            pending = null;
+        }
+
+        while (in.hasRemaining())
+        {
+            if (in.get(in.position()) != 0)
+            {
+                deliverLegacy(in, handler);
+                continue;
+            }
+            if (in.remaining() >= Frame.HEADER_LENGTH && in.remaining() >= Frame.HEADER_LENGTH + checkLength(in.getInt(in.position())))
+            {
+                deliverFrame(in, handler);
+                continue;
+            }
+            //keep the unfinished frame for the next read
+            pending = ByteBuffer.allocate(Frame.HEADER_LENGTH + Constants.MAX_MSG_LENGTH);
+            pending.put(in);
+        }
+    }
+
+    /**
+     * Tells whether a part of a frame is waiting for more bytes.
+     * @return true if there is an unfinished frame.
+     */
+    public boolean hasPending()
+    {
+        return pending != null;
+    }
+
+    private static int checkLength(int length) throws IOException
+    {
+        if (length < 0 || length > Constants.MAX_MSG_LENGTH)
+            throw new IOException("Frame length is not valid: " + length);
+        return length;
+    }
+
+    private static void deliverFrame(ByteBuffer in, Handler handler) throws IOException
+    {
+        int end = in.position() + Frame.HEADER_LENGTH + in.getInt(in.position());
+        int limit = in.limit();
+        in.limit(end);
+        try
+        {
+            handler.onFrame(in);
+        }
+        finally
+        {
+            in.limit(limit).position(end);
+        }
+    }
+
+    private static void deliverLegacy(ByteBuffer in, Handler handler) throws IOException
+    {
+        int end = in.position();
+        while (end < in.limit() && in.get(end) != 0)
+            end++;
+        int limit = in.limit();
+        in.limit(end);
+        try
+        {
+            handler.onLegacy(in);
+        }
+        finally
+        {
+            in.limit(limit).position(end);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package common;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in buckets that grow with the value, four buckets for every power of two,
+ * so every value is known within a quarter of itself from a nanosecond to about two hours.
+ * Every bucket is a <code>LongAdder</code>, threads that record at the same time do not
+ * fight over one counter and nothing is locked or created per value.
+ * <p>
+ * The percentiles are read from a snapshot of the buckets, a value recorded while it is
+ * read may be missing from it. The server counts the latencies of its commands in it, and
+ * the load generator those of its players.
+ * @see server.net.ServerMetrics
+ * @see client.net.LoadGenerator
+ */
+public class LatencyHistogram
+{
+  private static final int SUB_BUCKETS = 4; // buckets per power of two
+  private static final int MAX_EXPONENT = 42; // 2^43 ns is more than two hours, longer ones go to the last bucket
+  private static final int BUCKETS = (MAX_EXPONENT - 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder total = new LongAdder(); // sum of all values, for the mean
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram()
+  {
+    for (int i = 0; i < BUCKETS; i++)
+      buckets[i] = new LongAdder();
+  }
+
+  /**
+   * Counts one value.
+   * @param nanos The latency in nanoseconds, negative values count as 0.
+   */
+  public void record(long nanos)
+  {
+    if (nanos < 0)
+      nanos = 0;
+    buckets[bucketOf(nanos)].increment();
+    total.add(nanos);
+    if (nanos > max.get())
+      max.accumulate(nanos);
+  }
+
+  /**
+   * Getter for the number of values
+   * @return Return the number of recorded latencies
+   */
+  public long getCount()
+  {
+    long count = 0;
+    for (LongAdder bucket : buckets)
+      count += bucket.sum();
+    return count;
+  }
+
+  /**
+   * Getter for the largest value
+   * @return Return the largest latency in nanoseconds
+   */
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  /**
+   * Reads a snapshot of the buckets and gives the values at the percentiles.
+   * @param percentiles The percentiles, between 0 and 100.
+   * @return Return the upper end of the bucket of every percentile in nanoseconds, 0 when
+   * nothing was recorded.
+   */
+  public long[] percentiles(double... percentiles)
+  {
+    long[] counts = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      counts[i] = buckets[i].sum();
+      count += counts[i];
+    }
+
+    long[] values = new long[percentiles.length];
+    if (count == 0)
+      return values;
+    for (int p = 0; p < percentiles.length; p++)
+    {
+      long rank = Math.max(1, (long) Math.ceil(percentiles[p] / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+        seen += counts[i];
+        if (seen >= rank)
+        {
+          values[p] = Math.min(upperOf(i), getMax());
+          break;
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Getter for the mean
+   * @return Return the mean latency in nanoseconds, 0 when nothing was recorded
+   */
+  public long getMean()
+  {
+    long count = getCount();
+    return count == 0 ? 0 : total.sum() / count;
+  }
+
+  static int bucketOf(long value)
+  {
+    if (value < SUB_BUCKETS)
+      return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent > MAX_EXPONENT)
+      return BUCKETS - 1;
+    int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+    return (exponent - 1) * SUB_BUCKETS + sub;
+  }
+
+  static long upperOf(int bucket)
+  {
+    if (bucket < SUB_BUCKETS)
+      return bucket;
+    int exponent = bucket / SUB_BUCKETS + 1;
+    long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 2);
+    return low + (1L << (exponent - 2)) - 1;
+  }
+}
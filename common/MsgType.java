@@ -4,7 +4,7 @@ package common;
  */
 public enum MsgType {
     /**
-     * Starts the game
+     * Starts the game, optionally followed by <code>len=N</code> and easy, medium or hard
      */
     START("start"),
     /**
@@ -26,7 +26,40 @@ public enum MsgType {
     /**
      * Finish the round and make the score 0
      */
-    RESULT("result");
+    RESULT("result"),
+    /**
+     * Closes the connection to the server. New types are only added at the end, because
+     * the ordinal is the type byte of a frame.
+     */
+    DISCONNECT("disconnect"),
+    /**
+     * Continues a session of an earlier connection, followed by the session token of the welcome
+     */
+    RESUME("resume"),
+    /**
+     * Asks for the best players and the own rank, optionally followed by how many players
+     */
+    LEADERBOARD("leaderboard"),
+    /**
+     * Asks for the counters of the server, the connections, the traffic and the latency of every command
+     */
+    STATS("stats"),
+    /**
+     * Joins a room where everybody guesses the same word, followed by the name of the room
+     */
+    JOIN("join"),
+    /**
+     * Leaves the room and goes back to the own game
+     */
+    LEAVE("leave"),
+    /**
+     * The state of the game of a room, sent to every member when it changes
+     */
+    ROOM("room"),
+    /**
+     * The token of the session of a new connection, sent as a frame right after the welcome
+     */
+    SESSION("session");
     private String name;
     private MsgType(String inp)
     {
@@ -0,0 +1,3 @@
+#!/bin/bash
+
+java -classpath build/ client.net.LoadGenerator "$@"
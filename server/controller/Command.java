@@ -0,0 +1,133 @@
+package server.controller;
+
+import java.nio.CharBuffer;
+import common.*;
+
+/**
+ * One command of a client, as read by <code>server.controller.CommandParser</code>. The same
+ * object is filled again for every command, so reading a command creates no objects. The
+ * argument is kept trimmed and in lower case, the same normalization as the words of
+ * <code>server.model.WordRepository</code>, and it is only valid until the next command is
+ * read into the object.
+ * @see server.controller.CommandParser
+ */
+public final class Command
+{
+  private MsgType type;
+  private boolean legacy;
+  private String error; //why the command was refused while it was read, null if it was not
+  private final CharBuffer argument;
+
+  /**
+   * Creates a command big enough for any message.
+   */
+  public Command()
+  {
+    this(Frame.HEADER_LENGTH + Constants.MAX_MSG_LENGTH);
+  }
+
+  /**
+   * Creates a command for arguments up to the given number of chars.
+   * @param capacity The longest argument.
+   */
+  public Command(int capacity)
+  {
+    argument = CharBuffer.allocate(capacity);
+    argument.limit(0);
+  }
+
+  /**
+   * Getter for the type of the command
+   * @return Return the type, null if the client sent a type that is not known
+   */
+  public MsgType getType()
+  {
+    return type;
+  }
+
+  /**
+   * Getter for the reason the command was refused while it was read, like an argument that
+   * does not fit. The type is null then.
+   * @return Return the error message, null for a good command
+   */
+  public String getError()
+  {
+    return error;
+  }
+
+  /**
+   * Tells if the command came as an old <code>type##payload</code> text message, so the
+   * answer should be text too.
+   * @return true for text messages, false for frames
+   */
+  public boolean isLegacy()
+  {
+    return legacy;
+  }
+
+  /**
+   * Getter for the argument of the command
+   * @return Return the argument or null if there is none
+   */
+  public CharSequence getArgument()
+  {
+    return argument.hasRemaining() ? argument : null;
+  }
+
+  /**
+   * Fills the command from already decoded parts.
+   * @param type The type of the command, null if it was not known.
+   * @param argument The argument, may be null.
+   * @param legacy true if the command came as a text message.
+   */
+  public void set(MsgType type, CharSequence argument, boolean legacy)
+  {
+    this.argument.clear();
+    if(argument != null)
+      this.argument.append(argument);
+    this.argument.flip();
+    set(type, legacy);
+  }
+
+  void set(MsgType type, boolean legacy)
+  {
+    this.type = type;
+    this.legacy = legacy;
+    this.error = null;
+    normalize();
+  }
+
+  /**
+   * Refuses the command that was just read, it is answered with the error and not run.
+   * @param error The error message.
+   */
+  void refuse(String error)
+  {
+    this.type = null;
+    this.error = error;
+    argument.limit(0);
+  }
+
+  /**
+   * The buffer the parser decodes the argument into, cleared and ready to be written.
+   * @return Return the argument buffer
+   */
+  CharBuffer argumentBuffer()
+  {
+    argument.clear();
+    return argument;
+  }
+
+  private void normalize()
+  {
+    int from = argument.position();
+    int to = argument.limit();
+    while(from < to && Character.isWhitespace(argument.get(from)))
+      from++;
+    while(to > from && Character.isWhitespace(argument.get(to - 1)))
+      to--;
+    for(int i=from;i<to;i++)
+      argument.put(i, Character.toLowerCase(argument.get(i)));
+    argument.limit(to).position(from);
+  }
+}
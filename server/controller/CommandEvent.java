@@ -0,0 +1,22 @@
+package server.controller;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of one command played by <code>server.controller.Controller</code>,
+ * only the game logic, without reading the command or encoding the answer.
+ * @see server.controller.Controller
+ */
+@Name("hangman.Command")
+@Label("Command")
+@Category({"Hangman", "Commands"})
+@StackTrace(false)
+class CommandEvent extends Event
+{
+  @Label("Command")
+  String command;
+
+  @Label("Outcome")
+  @Description("Type of the answer, result or error")
+  String outcome;
+}
@@ -0,0 +1,124 @@
+package server.controller;
+
+import java.nio.*;
+import java.nio.charset.*;
+import common.*;
+
+/**
+ * Reads commands straight from the received bytes into a reused
+ * <code>server.controller.Command</code>. The type is found with a table built once from
+ * <code>common.MsgType</code>, the name of an old text message is compared byte by byte
+ * without caring about case, and only the argument is decoded, with a UTF-8 decoder that
+ * belongs to the parser. Nothing is created per command. An argument that does not fit in
+ * the command, or cannot be decoded, is never cut short: the command is refused instead, see
+ * <code>Command.getError</code>.
+ * <p>
+ * A parser and its command are not thread safe, each thread should have its own.
+ * @see server.controller.Command
+ * @see common.Frame
+ */
+public final class CommandParser
+{
+  private static final MsgType[] TYPES = MsgType.values();
+  private static final byte[][] NAMES; // Lower case name of every MsgType, index is the ordinal
+  private static final byte DELIMITER = '#'; // Constants.MSG_DELIMETER is two of these
+  private static final String TOO_LONG = "The argument is too long or not valid UTF-8.";
+
+  static
+  {
+    NAMES = new byte[TYPES.length][];
+    for(int i=0;i<TYPES.length;i++)
+      NAMES[i] = TYPES[i].name().toLowerCase().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  /**
+   * Reads a frame into the command. The position of the buffer does not move.
+   * @param frame The whole frame, header included, between position and limit.
+   * @param command The command to fill.
+   */
+  public void parseFrame(ByteBuffer frame, Command command)
+  {
+    int start = frame.position();
+    int length = frame.getInt(start);
+    MsgType type = Frame.typeOf(frame.get(start + 4));
+    boolean complete = decode(frame, start + Frame.HEADER_LENGTH, start + Frame.HEADER_LENGTH + length, command);
+    command.set(type, false);
+    if(!complete)
+      command.refuse(TOO_LONG);
+  }
+
+  /**
+   * Reads an old <code>type##payload</code> text message into the command. The type is
+   * matched without caring about case, the type of an unknown name is null. The position of
+   * the buffer does not move.
+   * @param text The message between position and limit.
+   * @param command The command to fill.
+   */
+  public void parseLegacy(ByteBuffer text, Command command)
+  {
+    int from = text.position();
+    int to = text.limit();
+    int nameEnd = from;
+    while(nameEnd < to && !(text.get(nameEnd) == DELIMITER && nameEnd + 1 < to && text.get(nameEnd + 1) == DELIMITER))
+      nameEnd++;
+
+    MsgType type = typeOf(text, from, nameEnd);
+    boolean complete = true;
+    if(nameEnd < to)
+      complete = decode(text, nameEnd + 2, to, command);
+    else
+      command.argumentBuffer().flip();
+    command.set(type, true);
+    if(!complete)
+      command.refuse(TOO_LONG);
+  }
+
+  private static MsgType typeOf(ByteBuffer text, int from, int to)
+  {
+    while(from < to && isSpace(text.get(from)))
+      from++;
+    while(to > from && isSpace(text.get(to - 1)))
+      to--;
+    for(int t=0;t<NAMES.length;t++)
+    {
+      byte[] name = NAMES[t];
+      if(name.length != to - from)
+        continue;
+      int i = 0;
+      //names are only letters, setting the 0x20 bit turns an ascii letter to lower case
+      while(i < name.length && (text.get(from + i) | 0x20) == name[i])
+        i++;
+      if(i == name.length)
+        return TYPES[t];
+    }
+    return null;
+  }
+
+  private static boolean isSpace(byte b)
+  {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+
+  /**
+   * Decodes the argument into the command.
+   * @return false if it did not fit or could not be decoded.
+   */
+  private boolean decode(ByteBuffer in, int from, int to, Command command)
+  {
+    CharBuffer out = command.argumentBuffer();
+    int position = in.position();
+    int limit = in.limit();
+    in.limit(to).position(from);
+    utf8.reset();
+    CoderResult result = utf8.decode(in, out, true);
+    if(result.isUnderflow())
+      result = utf8.flush(out);
+    in.limit(limit).position(position);
+    out.flip();
+    return result.isUnderflow();
+  }
+}
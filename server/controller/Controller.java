@@ -1,36 +1,62 @@
 package server.controller;
 
-import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import common.*;
 import server.model.*;
 
 /**
 * This class designed in order to completely handle string messages between clinets and their game
 * and It will handle possible exceptions and prepares a nice and easy response to all messages from clients.
-* There is a <code>server.controller.Controller.Message</code> private class for
-* converting string to a class that can be handled much easier. Controller also handles exceptions
+* Messages are read into a <code>server.controller.Command</code> by a
+* <code>server.controller.CommandParser</code>, so they can be handled much easier. Controller also handles exceptions
 * comming from Hangman class.
-* @see server.controller.Controller.Message
+* @see server.controller.Command
 * @see common.MsgType
 * @see server.model.Hangman
 */
 
 public class Controller
 {
-  private static final String WELCOME_MESSAGE = MsgType.WELCOME + Constants.MSG_DELIMETER + "You are connected to the game and good to go. Commands description: \n 1) Start \n 2) Guess (followed by a word or character) \n 3) Finish \n 4) Disconnect \n"; //the welcome message sent to client.
+  private static final String WELCOME_MESSAGE = "You are connected to the game and good to go. Commands description: \n 1) Start (optionally followed by len=N and easy, medium or hard) \n 2) Guess (followed by a word or character) \n 3) Finish \n 4) Disconnect \n 5) Resume (followed by the session token of an earlier connection) \n 6) Leaderboard (optionally followed by how many players) \n 7) Stats \n 8) Join (followed by the name of a room, everybody in it guesses the same word) \n 9) Leave \n"; //the welcome message sent to client.
+  private static final ByteBuffer WELCOME = Frame.encodeLegacy(MsgType.WELCOME, WELCOME_MESSAGE).asReadOnlyBuffer(); //encoded once for every player
+  private static final int LEADERBOARD_SIZE = 10; //players shown when the LEADERBOARD command does not say
+  private static final int MAX_LEADERBOARD_SIZE = 100;
   private Hangman hangman;
+  private MsgType resultType;
   private String result;
   /**
    * Constructs the controller object
-   * @param wordsFilePath Reference file path containing words
-   * @throws IOException in case of file not found
+   * @param words The shared dictionary of the words, loaded once by the server
    */
-  public Controller(String wordsFilePath) throws IOException
+  public Controller(WordDictionary words)
   {
-    hangman = new Hangman(wordsFilePath);
+    this(words, null);
+  }
+
+  /**
+   * Constructs the controller object of a game that is on the leaderboard
+   * @param words The shared dictionary of the words, loaded once by the server
+   * @param leaderboard The board of all players, may be null
+   */
+  public Controller(WordDictionary words, Leaderboard leaderboard)
+  {
+    hangman = new Hangman(words, leaderboard);
+    resultType = MsgType.WELCOME;
     result = WELCOME_MESSAGE;
   }
 
+  /**
+   * The welcome message in the old text format, so every client can read it. All players
+   * share the same bytes, every call gives a new view of them.
+   * @return the encoded welcome message, read only.
+   */
+  public static ByteBuffer welcome()
+  {
+    return WELCOME.duplicate();
+  }
+
   /**
    * Translates incomming strings to commands for the game
    * @param cmd is the raaw string comming from the client
@@ -38,57 +64,288 @@ public class Controller
    */
   public void askTheGame(String cmd)
   {
-    Message msg = new Message(cmd);
+    Command command = new Command(cmd.length());
+    new CommandParser().parseLegacy(ByteBuffer.wrap(cmd.getBytes(StandardCharsets.UTF_8)), command);
+    askTheGame(command);
+  }
+
+  /**
+   * Runs a command that is already decoded from a frame
+   * @param type is the type of the command, null if it was not known
+   * @param argument is the argument of the command, may be null
+   */
+  public void askTheGame(MsgType type, String argument)
+  {
+    Command command = new Command(argument != null ? argument.length() : 0);
+    command.set(type, argument, false);
+    askTheGame(command);
+  }
+
+  /**
+   * Runs a command read by <code>server.controller.CommandParser</code>. Only the answer
+   * strings are created, reading the command and playing it creates nothing. Every call is a
+   * <code>server.controller.CommandEvent</code> of the flight recorder.
+   * @param command is the command, its argument is only read during the call
+   */
+  public void askTheGame(Command command)
+  {
+    CommandEvent event = new CommandEvent();
+    event.begin();
+    CharSequence message = command.getArgument();
     try
     {
-      switch (msg.msgType)
+      switch (command.getType() != null ? command.getType() : MsgType.ERROR)
       {
       case START:
-        hangman.startGame();
-        result =  MsgType.RESULT + Constants.MSG_DELIMETER + hangman.getWord() + " " + hangman.getRemainingFailedAttemptsString() + " " + hangman.getScore();
+        startGame(message);
+        resultType = MsgType.RESULT;
+        result = null; //built only if somebody asks for the string, see getResultPayload
         break;
       case GUESS:
-        hangman.guess(msg.message);
-        result =  MsgType.RESULT + Constants.MSG_DELIMETER + hangman.getWord() + " " + hangman.getRemainingFailedAttemptsString() + " " + hangman.getScore();
+        if(message == null)
+          throw new Exception("Nothing to guess.");
+        hangman.guess(message);
+        resultType = MsgType.RESULT;
+        result = null; //built only if somebody asks for the string, see getResultPayload
+        break;
+      case LEADERBOARD:
+        resultType = MsgType.LEADERBOARD;
+        result = leaderboard(message);
         break;
       case FINISH:
         hangman.finishGame();
-        result =  MsgType.RESULT + Constants.MSG_DELIMETER + hangman.getWord() + " " + hangman.getRemainingFailedAttemptsString() + " " + hangman.getScore();
+        resultType = MsgType.RESULT;
+        result = null; //built only if somebody asks for the string, see getResultPayload
         break;
       default:
-        result =  MsgType.ERROR + Constants.MSG_DELIMETER + "corrupt command.";
+        resultType = MsgType.ERROR;
+        result = command.getError() != null ? command.getError() : "corrupt command.";
 
       }
     }
     catch(Exception ex)
     {
-      result = MsgType.ERROR + Constants.MSG_DELIMETER + ex.getMessage();
+      resultType = MsgType.ERROR;
+      result = ex.getMessage();
+    }
+
+    if(event.shouldCommit())
+    {
+      event.command = String.valueOf(command.getType());
+      event.outcome = resultType.toString();
+      event.commit();
     }
   }
 
-  private static class Message
+  /**
+   * Takes the game off the leaderboard, when its session ends.
+   */
+  public void leave()
   {
-      private MsgType msgType;
-      private String message;
+    hangman.leaveLeaderboard();
+  }
 
-      private Message(String inp)
+  /**
+   * Describes the best players and the rank of this player.
+   * @param count how many players to show, may be null for the default.
+   * @return the text of the answer.
+   * @throws Exception in case there is no leaderboard or the count is not a number.
+   */
+  private String leaderboard(CharSequence count) throws Exception
+  {
+    Leaderboard board = hangman.getLeaderboard();
+    if(board == null)
+      throw new Exception("There is no leaderboard on this server.");
+    int k = LEADERBOARD_SIZE;
+    if(count != null)
+    {
+      try
+      {
+        k = Math.max(1, Math.min(MAX_LEADERBOARD_SIZE, Integer.parseInt(count.toString())));
+      }
+      catch (NumberFormatException ex)
       {
-          String[] splitted = inp.split(Constants.MSG_DELIMETER);
-          msgType = MsgType.valueOf(splitted[0].toUpperCase());
-          if(splitted.length>1)
-            message = splitted[1].toLowerCase();
-          else
-            message = null;
+        throw new Exception("The number of players is not a number: " + count);
       }
+    }
+
+    StringBuilder text = new StringBuilder("top players of " + board.size() + ":\n");
+    int place = 1;
+    for(Leaderboard.Entry entry : board.top(k))
+      text.append(' ').append(place++).append(") player").append(entry.getId()).append(' ').append(entry.getScore()).append('\n');
+    text.append(" you are player").append(hangman.getLeaderboardId());
+    if(hangman.isRanked())
+      text.append(", rank ").append(board.rankOf(hangman.getScore())).append(" with ").append(hangman.getScore());
+    else
+      text.append(", not ranked until a round ends");
+    return text.toString();
+  }
+
+  /**
+   * Makes the current state of the game the answer, the masked word, the remaining attempts
+   * and the score. Used when a session is resumed.
+   */
+  public void showGame()
+  {
+    resultType = MsgType.RESULT;
+    result = null;
+  }
+
+  /**
+   * Makes a text the answer, for commands that are answered by the server and not by the game.
+   * @param type is the type of the answer
+   * @param text is the text of the answer
+   */
+  public void answer(MsgType type, String text)
+  {
+    resultType = type;
+    result = text;
+  }
+
+  /**
+   * Makes an error the answer, for commands that are refused before they reach the game.
+   * @param message is the error message
+   */
+  public void reject(String message)
+  {
+    resultType = MsgType.ERROR;
+    result = message;
+  }
+
+  /**
+   * Starts the game with the optional parameters of the START command. The parameters are
+   * separated by spaces or commas, <code>len=N</code> asks for a word of length N and
+   * <code>easy</code>, <code>medium</code> or <code>hard</code> ask for a difficulty.
+   * For example <code>start##len=7</code> or <code>start##len=7 hard</code>.
+   * The parameters are read char by char, nothing is split.
+   * @param options the parameters of the START command, may be null.
+   * @throws Exception in case of unknown parameters or no word matching them.
+   */
+  private void startGame(CharSequence options) throws Exception
+  {
+    int length = WordIndex.ANY_LENGTH;
+    WordDifficulty difficulty = null;
+    int n = options != null ? options.length() : 0;
+    int from = 0;
+    while(from < n)
+    {
+      if(isSeparator(options.charAt(from)))
+      {
+        from++;
+        continue;
+      }
+      int to = from;
+      while(to < n && !isSeparator(options.charAt(to)))
+        to++;
+
+      if(matches(options, from, from + 4, "len="))
+        length = parseLength(options, from, to);
+      else if(matches(options, from, to, "easy"))
+        difficulty = WordDifficulty.EASY;
+      else if(matches(options, from, to, "medium"))
+        difficulty = WordDifficulty.MEDIUM;
+      else if(matches(options, from, to, "hard"))
+        difficulty = WordDifficulty.HARD;
+      else
+        throw new Exception("Unknown start parameter: " + options.subSequence(from, to));
+      from = to;
+    }
+    hangman.startGame(length, difficulty);
+  }
+
+  private static boolean isSeparator(char c)
+  {
+    return c == ',' || Character.isWhitespace(c);
+  }
+
+  private static boolean matches(CharSequence text, int from, int to, String word)
+  {
+    if(to - from != word.length() || to > text.length())
+      return false;
+    for(int i=0;i<word.length();i++)
+      if(text.charAt(from + i) != word.charAt(i))
+        return false;
+    return true;
+  }
+
+  private static int parseLength(CharSequence option, int from, int to) throws Exception
+  {
+    int length = 0;
+    for(int i=from+4;i<to;i++)
+    {
+      char c = option.charAt(i);
+      if(c < '0' || c > '9')
+        throw new Exception("Word length is not a number: " + option.subSequence(from, to));
+      if(length > WordRepository.MAX_WORD_LENGTH)
+        throw new Exception("There is no word with length " + option.subSequence(from + 4, to) + ".");
+      length = length * 10 + (c - '0');
+    }
+    if(from + 4 == to)
+      throw new Exception("Word length is not a number: " + option.subSequence(from, to));
+    return length;
   }
 
   /**
   * When any function gets invoked in this class, there is an answer for that. this function will
   * hand it.
-  * @return will be the response from the game. It may be an error.
+  * @return will be the response from the game, in the <code>type##payload</code> text format. It may be an error.
   */
   public String getResult()
   {
+    return resultType + Constants.MSG_DELIMETER + getResultPayload();
+  }
+
+  /**
+  * Getter for the type of the last answer, RESULT, ERROR or WELCOME.
+  * @return the type of the response.
+  */
+  public MsgType getResultType()
+  {
+    return resultType;
+  }
+
+  /**
+  * Getter for the last answer without its type, the payload of the response frame.
+  * @return the payload of the response.
+  */
+  public String getResultPayload()
+  {
+    if(resultType == MsgType.RESULT && result == null)
+      result = hangman.getWord() + " " + hangman.getRemainingFailedAttemptsString() + " " + hangman.getScore();
     return result;
   }
+
+  /**
+  * Writes the last answer into the buffer, as a frame or as an old text message. A RESULT
+  * is written from the game state directly, the masked word, the remaining attempts and
+  * the score, without building the string.
+  * @param out the buffer to write into.
+  * @param legacy true to write the <code>type##payload</code> text format.
+  * @return false if the answer does not fit, the buffer is then left as it was.
+  */
+  public boolean writeResult(ByteBuffer out, boolean legacy)
+  {
+    int start = out.position();
+    try
+    {
+      ResponseEncoder.begin(out, resultType, legacy);
+      if(resultType == MsgType.RESULT && result == null)
+      {
+        hangman.writeWord(out);
+        out.put((byte) ' ');
+        ResponseEncoder.putNumberOrNoValue(out, hangman.getRemainingFailedAttempts());
+        out.put((byte) ' ');
+        ResponseEncoder.putNumber(out, hangman.getScore());
+      }
+      else
+        out.put(String.valueOf(result).getBytes(StandardCharsets.UTF_8));
+      ResponseEncoder.end(out, start, legacy);
+      return true;
+    }
+    catch(BufferOverflowException ex)
+    {
+      out.position(start);
+      return false;
+    }
+  }
 }
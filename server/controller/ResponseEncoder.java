@@ -0,0 +1,93 @@
+package server.controller;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import common.*;
+
+/**
+ * Writes answers straight into a byte buffer, either as a frame of <code>common.Frame</code>
+ * or as an old <code>type##payload</code> text message. The type prefixes are encoded once
+ * and numbers are written digit by digit, so an answer is built without any strings.
+ * @see server.controller.Controller
+ * @see common.Frame
+ */
+final class ResponseEncoder
+{
+  private static final byte[][] LEGACY_PREFIX; // "type##" of every MsgType, index is the ordinal
+  private static final byte[] NO_VALUE = "novalue".getBytes(StandardCharsets.US_ASCII);
+
+  static
+  {
+    MsgType[] types = MsgType.values();
+    LEGACY_PREFIX = new byte[types.length][];
+    for(int i=0;i<types.length;i++)
+      LEGACY_PREFIX[i] = (types[i] + Constants.MSG_DELIMETER).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private ResponseEncoder()
+  {
+  }
+
+  /**
+   * Writes the start of an answer: the frame header with a length to be filled by
+   * <code>end</code>, or the text prefix.
+   * @param out The buffer to write into.
+   * @param type The type of the answer.
+   * @param legacy true for a text message.
+   * @return The position the answer starts at, to be given to <code>end</code>.
+   */
+  static int begin(ByteBuffer out, MsgType type, boolean legacy)
+  {
+    int start = out.position();
+    if(legacy)
+      out.put(LEGACY_PREFIX[type.ordinal()]);
+    else
+      out.putInt(0).put((byte) type.ordinal());
+    return start;
+  }
+
+  /**
+   * Finishes an answer, the length of a frame is filled in.
+   * @param out The buffer the answer is written into.
+   * @param start What <code>begin</code> returned.
+   * @param legacy true for a text message.
+   */
+  static void end(ByteBuffer out, int start, boolean legacy)
+  {
+    if(!legacy)
+      out.putInt(start, out.position() - start - Frame.HEADER_LENGTH);
+  }
+
+  /**
+   * Writes a number as ASCII digits, or <code>novalue</code> when it is negative.
+   * @param out The buffer to write into.
+   * @param n The number.
+   */
+  static void putNumberOrNoValue(ByteBuffer out, int n)
+  {
+    if(n < 0)
+      out.put(NO_VALUE);
+    else
+      putNumber(out, n);
+  }
+
+  /**
+   * Writes a number as ASCII digits.
+   * @param out The buffer to write into.
+   * @param n The number.
+   */
+  static void putNumber(ByteBuffer out, int n)
+  {
+    long v = n;
+    if(v < 0)
+    {
+      out.put((byte) '-');
+      v = -v;
+    }
+    long div = 1;
+    while(div * 10 <= v)
+      div *= 10;
+    for(;div>0;div/=10)
+      out.put((byte) ('0' + (v / div) % 10));
+  }
+}
@@ -0,0 +1,39 @@
+package server.model;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Offline tool that compiles the plain words file into the binary dictionary format
+ * described in <code>server.model.WordRepository</code>. The server memory maps the
+ * compiled file at startup instead of parsing every line of the words file.
+ * <pre>
+ * java -classpath build/ server.model.DictionaryCompiler words.txt words.bin
+ * </pre>
+ * @see server.model.WordRepository
+ */
+public class DictionaryCompiler
+{
+  /**
+   * @param args the words file and the output file. by default words.txt and words.bin
+   */
+  public static void main(String[] args)
+  {
+    String input = args.length > 0 ? args[0] : "words.txt";
+    String output = args.length > 1 ? args[1] : "words.bin";
+
+    try
+    {
+      long start = System.nanoTime();
+      WordRepository words = WordRepository.parse(Paths.get(input));
+      words.writeTo(Paths.get(output));
+      long took = (System.nanoTime() - start) / 1000000;
+      System.out.println("Compiled " + words.size() + " words (" + words.poolLength() + " bytes) into " + output + " in " + took + " ms.");
+    }
+    catch (IOException ex)
+    {
+      System.err.println("Could not compile the dictionary: " + ex.getMessage());
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package server.model;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the file of a <code>server.model.WordDictionary</code> with a <code>WatchService</code>
+ * and reloads the dictionary on its own background thread whenever the file changes. Events
+ * that arrive shortly after each other are handled as one change, so a file that is being
+ * written is not loaded half way. The time of every reload and the size of the new index
+ * are printed.
+ * <p>
+ * When the dictionary is a compiled file, the words file it was compiled from can be watched
+ * too. A change of the words file is compiled into the dictionary file again, like
+ * <code>server.model.DictionaryCompiler</code> does, and the new compiled file is then
+ * reloaded like any other change of it. So editing the words file is enough in both cases.
+ * @see server.model.WordDictionary
+ * @see server.model.DictionaryCompiler
+ */
+public class DictionaryWatcher implements Runnable
+{
+  private static final long QUIET_TIME = 300; //milliseconds without events before reloading
+  private static final int DICTIONARY = 1; //bits of the files that changed
+  private static final int SOURCE = 2;
+
+  private final WordDictionary dictionary;
+  private final Path source; //the words file of a compiled dictionary, may be null
+
+  /**
+   * Constructs the watcher of a dictionary, <code>start</code> should be called to run it.
+   * @param dictionary The dictionary to reload.
+   */
+  public DictionaryWatcher(WordDictionary dictionary)
+  {
+    this(dictionary, null);
+  }
+
+  /**
+   * Constructs the watcher of a compiled dictionary and the words file it is compiled from,
+   * <code>start</code> should be called to run it.
+   * @param dictionary The dictionary to reload.
+   * @param source The words file to compile into the dictionary file when it changes, may be null.
+   */
+  public DictionaryWatcher(WordDictionary dictionary, Path source)
+  {
+    this.dictionary = dictionary;
+    this.source = source != null ? source.toAbsolutePath() : null;
+  }
+
+  /**
+   * Starts watching on a daemon thread.
+   */
+  public void start()
+  {
+    Thread thread = new Thread(this, "dictionary-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void run()
+  {
+    Path file = dictionary.getPath().toAbsolutePath();
+    try (WatchService watcher = file.getFileSystem().newWatchService())
+    {
+      file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      if(source != null)
+        source.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      while(true)
+      {
+        WatchKey key = watcher.take();
+        int changed = changesOf(key, file);
+        //wait until the writes are finished
+        while(changed != 0 && (key = watcher.poll(QUIET_TIME, TimeUnit.MILLISECONDS)) != null)
+          changed |= changesOf(key, file);
+        //a compiled file is moved over the dictionary file, which is reloaded on its own event
+        if((changed & SOURCE) != 0)
+          compile(file);
+        else if((changed & DICTIONARY) != 0)
+          reload();
+      }
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+    catch (IOException ex)
+    {
+      System.err.println("Dictionary watcher failure: " + ex.getMessage());
+    }
+  }
+
+  private int changesOf(WatchKey key, Path file)
+  {
+    Path dir = (Path) key.watchable();
+    int changed = 0;
+    for(WatchEvent<?> event : key.pollEvents())
+    {
+      if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+      {
+        changed |= source != null ? SOURCE : DICTIONARY;
+        continue;
+      }
+      Path path = dir.resolve((Path) event.context());
+      if(path.equals(file))
+        changed |= DICTIONARY;
+      else if(path.equals(source))
+        changed |= SOURCE;
+    }
+    key.reset();
+    return changed;
+  }
+
+  private void compile(Path file)
+  {
+    try
+    {
+      long start = System.nanoTime();
+      WordRepository words = WordRepository.parse(source);
+      words.writeTo(file);
+      System.out.println("Dictionary compiled again from " + source.getFileName() + ": " + words.size() + " words, took "
+          + (System.nanoTime() - start) / 1000000 + " ms.");
+    }
+    catch (IOException | RuntimeException ex)
+    {
+      //the compiled file is only replaced by a complete one, the old words stay
+      System.err.println("Dictionary compile failed, keeping the old words: " + ex);
+    }
+  }
+
+  private void reload()
+  {
+    try
+    {
+      WordIndex index = dictionary.reload();
+      System.out.println("Dictionary reloaded: " + index.getWords().size() + " words, index size "
+          + index.sizeInBytes() + " bytes, took " + dictionary.getLastReloadMillis() + " ms.");
+    }
+    catch (IOException | RuntimeException ex)
+    {
+      //a bad file must not end the watcher, the next change may fix it
+      System.err.println("Dictionary reload failed, keeping the old words: " + ex);
+    }
+  }
+}
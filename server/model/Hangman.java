@@ -3,31 +3,49 @@ package server.model;
 import java.math.*;
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * This class is only for handling the game. The rules, words, and other stuff is defined
  * here. The <code>controller</code> class calls its methods. It throws exceptions to be handled by
  * controller.
+ * <p>
+ * When a word is chosen, the positions of every letter in it are kept as a bitmask, so a
+ * guess on one letter is only a few bit operations. The revealed positions and the letters
+ * that are already guessed are bitsets too, and the word with the free places is only built
+ * when somebody asks for it.
+ * <p>
+ * When a <code>server.model.Leaderboard</code> is given, the score is put on it every time a
+ * round ends or the game is finished.
  @see server.controller.Controller
+ @see server.model.Leaderboard
  */
 public class Hangman
 {
   public final String FREE_WORD_CHAR = "_";
 
-  private String wordsFilePath; // Reference file path containing words
+  private final WordDictionary dictionary; // Shared dictionary of the words
   private Integer score; //Current score of the player
   private Integer remainingFailedAttempts; //Remaining failed attempts
-  private String word; // The word that changes by true guesses and finally will be the chosen word
+  private String word; // The word shown when the round is finished
   private String chosenWord; // The word chosen by server
+  private final long[] letterPositions = new long[26]; // Bitmask of positions of each letter a-z in the chosen word
+  private long allPositions; // Bitmask with one bit for each position of the chosen word
+  private long revealed; // Bitmask of the positions that are guessed
+  private int guessedLetters; // Bitset of the letters a-z that are guessed
   private HangmanStatus status; //Status of the game
+  private final Leaderboard leaderboard; // Board of all players, may be null
+  private final int leaderboardId; // Number of this player on the board
+  private boolean ranked; // The score is on the board
+  private int rankedScore; // The score that is on the board
 
   /**
-  * Getter for Reference file path containing words
-  * @return Return Reference file path containing words
+  * Getter for the shared dictionary of the words
+  * @return Return the shared dictionary of the words
   */
-  public String getWordsFilePath()
+  public WordDictionary getDictionary()
   {
-    return this.wordsFilePath;
+    return this.dictionary;
   }
 
   /**
@@ -64,17 +82,43 @@ public class Hangman
   }
 
   /**
-  * Getter for the word chosen by server
+  * Getter for the word chosen by server, with <code>FREE_WORD_CHAR</code> in the places
+  * which are not guessed yet
   * @return Return the word chosen by server
   */
   public String getWord()
   {
+    if(this.status == HangmanStatus.ONGOING)
+    {
+      char[] chars = new char[this.chosenWord.length()];
+      for(int i=0;i<chars.length;i++)
+        chars[i] = (this.revealed & (1L << i)) != 0 ? this.chosenWord.charAt(i) : FREE_WORD_CHAR.charAt(0);
+      return new String(chars);
+    }
     if(this.word!=null)
       return this.word;
     else
       return "novalue";
   }
 
+  /**
+  * Writes the same text as <code>getWord</code> into the buffer as ASCII bytes, without
+  * building a string. The words only have the letters a-z.
+  * @param out The buffer to write into
+  */
+  public void writeWord(ByteBuffer out)
+  {
+    if(this.status == HangmanStatus.ONGOING)
+    {
+      for(int i=0;i<this.chosenWord.length();i++)
+        out.put((byte) ((this.revealed & (1L << i)) != 0 ? this.chosenWord.charAt(i) : FREE_WORD_CHAR.charAt(0)));
+      return;
+    }
+    String shown = this.word != null ? this.word : "novalue";
+    for(int i=0;i<shown.length();i++)
+      out.put((byte) shown.charAt(i));
+  }
+
   /**
   * Getter for the word that changes by true guesses and finally will be the chosen word
   * @return Return the word that changes by true guesses and finally will be the chosen word
@@ -97,92 +141,117 @@ public class Hangman
   }
 
   /**
-  * This constructor is initiating variables and words. We choose MAX_WORDS randomly from the file.
-  * @param wfp The complete path to the file containing the refrence words
-  * for the hangmant game. Every line, 1 word.
-  * @exception IOException It will be sent in case of file location problem.
-  * @exception IOException It will be sent in case of out of bound (bigger than 0) afa parameter.
+  * This constructor is initiating variables. Words are not read here, they come from the
+  * dictionary which is loaded once by the server and shared between all games.
+  * @param dictionary The shared dictionary of the refrence words for the hangmant game.
   */
-  public Hangman(String wfp) throws IOException
+  public Hangman(WordDictionary dictionary)
   {
+    this(dictionary, null);
+  }
 
-    if(!(new File(wfp).canRead()))
-      throw new IOException("The specified file cannot be read.");
-
-    this.wordsFilePath = wfp;
+  /**
+  * Creates a game that puts its score on a leaderboard.
+  * @param dictionary The shared dictionary of the refrence words for the hangmant game.
+  * @param leaderboard The board of all players, may be null.
+  */
+  public Hangman(WordDictionary dictionary, Leaderboard leaderboard)
+  {
+    this.dictionary = dictionary;
+    this.leaderboard = leaderboard;
+    this.leaderboardId = leaderboard != null ? leaderboard.join() : 0;
     this.score = 0;
     this.status = HangmanStatus.EMPTY;
   }
 
   /**
   * Runs the game by initiating word, chosen word, and remainingFailedAttempts.
-  * @exception Exception In case of worng status invoking or IOException in case of file problems.
+  * @exception Exception In case of worng status invoking.
   */
   public void startGame() throws Exception
+  {
+    startGame(WordIndex.ANY_LENGTH, null);
+  }
+
+  /**
+  * Runs the game with a word of the given length and difficulty.
+  * @param length Length of the word or <code>WordIndex.ANY_LENGTH</code>
+  * @param difficulty Difficulty of the word or null for any difficulty
+  * @exception Exception In case of worng status invoking or no word matching the request.
+  */
+  public void startGame(int length, WordDifficulty difficulty) throws Exception
   {
     if(this.status == HangmanStatus.ONGOING)
       throw new Exception("In this status a new game cannot be started. The ongoing game should be finished first.");
 
-    this.chosenWord = readRandomWord();
+    this.chosenWord = dictionary.current().pick(length, difficulty);
     this.remainingFailedAttempts = this.chosenWord.length();
-    String tmp = FREE_WORD_CHAR;
-    for(int i=0;i<this.chosenWord.length()-1;i++)
-      tmp = tmp + FREE_WORD_CHAR;
 
-    this.word = tmp;
+    Arrays.fill(this.letterPositions, 0L);
+    for(int i=0;i<this.chosenWord.length();i++)
+      this.letterPositions[this.chosenWord.charAt(i) - 'a'] |= 1L << i;
+    this.allPositions = this.chosenWord.length() == 64 ? -1L : (1L << this.chosenWord.length()) - 1;
+    this.revealed = 0L;
+    this.guessedLetters = 0;
+
+    this.word = null;
     this.status = HangmanStatus.ONGOING;
   }
 
   /**
   * If the client makes a guess on a char, then server looks into the chosen word and replaces the free places with the guessed char.
-  * in a successful try, remainingFailedAttempts wont change.
+  * in a successful try, remainingFailedAttempts wont change. Guessing a char again is refused and does not cost an attempt.
   * If the client makes a guess on a word, server checks that and in a successful one game status will change to finished.
-  * @param inp What client guessed.
-  * @exception Exception In case of worng status invoking
+  * @param inp What client guessed, it is only read during the call so a reused buffer can be passed.
+  * @exception Exception In case of worng status invoking or a char that is already guessed
   */
-  public void guess(String inp) throws Exception
+  public void guess(CharSequence inp) throws Exception
   {
     if(this.status != HangmanStatus.ONGOING)
       throw new Exception("In this status a guess cannot be made. The game should be initiated first.");
 
-    Boolean wrongGuess = true;
+    boolean wrongGuess = true;
 
     if(inp.length()>1)
     {
       //Guessing the whole word
-      if(this.chosenWord.equals(inp))
+      if(this.chosenWord.contentEquals(inp))
       {
         wrongGuess = false;
-        this.word = inp;
+        this.revealed = this.allPositions;
       }
     }
     else if(inp.length() == 1)
     {
       //Guessing only one char
-      if(this.chosenWord.contains(inp))
+      int letter = inp.charAt(0) - 'a';
+      if(letter >= 0 && letter < 26)
       {
-        wrongGuess = false;
-        for(int i=0;i<this.chosenWord.length();i++)
+        int bit = 1 << letter;
+        if((this.guessedLetters & bit) != 0)
+          throw new Exception("The char " + inp + " is already guessed.");
+        this.guessedLetters |= bit;
+
+        long positions = this.letterPositions[letter];
+        if(positions != 0)
         {
-          if(this.chosenWord.charAt(i)==inp.charAt(0))
-          {
-            StringBuilder myTMP = new StringBuilder(this.word);
-            myTMP.setCharAt(i, inp.charAt(0));
-            this.word = myTMP.toString();
-          }
+          wrongGuess = false;
+          this.revealed |= positions;
         }
       }
     }
     else
       throw new Exception("Unknown input guess string.");
 
-    if(this.chosenWord.equals(this.word))
+    if(this.revealed == this.allPositions)
     {
       //won! go to finished state with +1 score
       this.score++;
+      this.word = this.chosenWord;
       this.chosenWord = null;
       this.remainingFailedAttempts = null;
       this.status = HangmanStatus.FINISHED;
+      updateLeaderboard();
     }
     if(wrongGuess)
     {
@@ -195,6 +264,7 @@ public class Hangman
         this.word = this.chosenWord;
         this.chosenWord = null;
         this.status = HangmanStatus.FINISHED;
+        updateLeaderboard();
       }
     }
   }
@@ -210,23 +280,65 @@ public class Hangman
     this.word = null;
     this.remainingFailedAttempts = null;
     this.status = HangmanStatus.EMPTY;
+    if(this.ranked)
+      updateLeaderboard();
   }
 
   /**
-  * Reads through the file and selects a word randomly.
-  * @return Selected random word
-  * @throws IOException in case of file not found
+  * Getter for the leaderboard of the game
+  * @return Return the leaderboard, null if there is none
   */
-  public String readRandomWord() throws IOException
+  public Leaderboard getLeaderboard()
   {
-    BufferedReader reader = new BufferedReader(new FileReader(wordsFilePath));
-    ArrayList<String> words = new ArrayList<String>();
-    String wInp;
-    while((wInp = reader.readLine())!=null)
-      words.add(wInp);
+    return this.leaderboard;
+  }
 
-    reader.close();
-    return words.get((int)(Math.random()*words.size()));
+  /**
+  * Getter for the number of the player on the leaderboard
+  * @return Return the player number
+  */
+  public int getLeaderboardId()
+  {
+    return this.leaderboardId;
+  }
+
+  /**
+  * Tells if the player has a score on the leaderboard, which is after its first round.
+  * @return Return true if the player is ranked
+  */
+  public boolean isRanked()
+  {
+    return this.ranked;
+  }
+
+  /**
+  * Takes the player off the leaderboard, when the game ends for good.
+  */
+  public void leaveLeaderboard()
+  {
+    if(this.leaderboard != null && this.ranked)
+    {
+      this.leaderboard.remove(this.leaderboardId, this.rankedScore);
+      this.ranked = false;
+    }
+  }
+
+  private void updateLeaderboard()
+  {
+    if(this.leaderboard == null)
+      return;
+    this.leaderboard.update(this.leaderboardId, this.ranked, this.rankedScore, this.score);
+    this.ranked = true;
+    this.rankedScore = this.score;
+  }
+
+  /**
+  * Selects a word randomly from the shared repository. There is no file I/O here.
+  * @return Selected random word
+  */
+  public String readRandomWord()
+  {
+    return dictionary.current().getWords().randomWord();
   }
 
   /**
@@ -12,7 +12,7 @@ public class HangmanTest
       /*Hangman ins = new Hangman("../../words.txt");
       System.out.println(ins);*/
 
-      Controller controller = new Controller("words.txt");
+      Controller controller = new Controller(WordDictionary.load("words.txt"));
       System.out.println(controller.getResult());
 
       Scanner scanner = new Scanner(System.in);
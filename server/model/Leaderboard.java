@@ -0,0 +1,179 @@
+package server.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The scores of all players of the server, to show the best ones and the rank of everybody.
+ * A game puts its score here every time a round ends, nothing is locked on the way.
+ * <p>
+ * The ranked players are kept in a skip list ordered by score, so the top K is read by walking
+ * the first K entries. For the rank of one player there is a Fenwick tree of how many players
+ * have each score, the rank is the number of players above the score plus one, which is one
+ * prefix sum. Both are updated with atomic operations only, a reader may see a player that
+ * is moving between two scores once or not at all, but never blocks.
+ * <p>
+ * Scores are counted in a fixed range of <code>MIN_SCORE</code> to <code>MAX_SCORE</code>,
+ * scores outside of it are ranked as the closest end of the range.
+ * @see server.model.Hangman
+ */
+public final class Leaderboard
+{
+  public static final int MIN_SCORE = -(1 << 16);
+  public static final int MAX_SCORE = (1 << 16) - 1;
+  private static final int SIZE = MAX_SCORE - MIN_SCORE + 1;
+
+  private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>();
+  private final AtomicLongArray counts = new AtomicLongArray(SIZE + 1); // Fenwick tree of players per score, 1 based
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  /**
+   * Gives a new player number, used as the name of the player on the board.
+   * @return Return the number
+   */
+  public int join()
+  {
+    return nextId.incrementAndGet();
+  }
+
+  /**
+   * Moves a player to a new score.
+   * @param id The number of the player
+   * @param ranked true if the player is on the board already
+   * @param oldScore The score the player is on the board with, ignored if not ranked
+   * @param newScore The new score
+   */
+  public void update(int id, boolean ranked, int oldScore, int newScore)
+  {
+    if(ranked && oldScore == newScore)
+      return;
+    entries.add(new Entry(id, newScore));
+    add(newScore, 1);
+    if(ranked)
+    {
+      entries.remove(new Entry(id, oldScore));
+      add(oldScore, -1);
+    }
+  }
+
+  /**
+   * Takes a player off the board.
+   * @param id The number of the player
+   * @param score The score the player is on the board with
+   */
+  public void remove(int id, int score)
+  {
+    if(entries.remove(new Entry(id, score)))
+      add(score, -1);
+  }
+
+  /**
+   * The best players, the highest score first and the earlier player first on the same score.
+   * @param k How many players
+   * @return Return up to k entries
+   */
+  public List<Entry> top(int k)
+  {
+    List<Entry> top = new ArrayList<>(Math.min(k, 100));
+    for(Entry entry : entries)
+    {
+      if(top.size() == k)
+        break;
+      top.add(entry);
+    }
+    return top;
+  }
+
+  /**
+   * The rank of a score, players with the same score share the rank.
+   * @param score The score
+   * @return Return one more than the number of players with a higher score
+   */
+  public long rankOf(int score)
+  {
+    return 1 + sum(SIZE) - sum(index(score));
+  }
+
+  /**
+   * Getter for the number of ranked players
+   * @return Return the players on the board
+   */
+  public long size()
+  {
+    return sum(SIZE);
+  }
+
+  private void add(int score, long delta)
+  {
+    for(int i=index(score);i<=SIZE;i+=i&-i)
+      counts.getAndAdd(i, delta);
+  }
+
+  private long sum(int index)
+  {
+    long sum = 0;
+    for(int i=index;i>0;i-=i&-i)
+      sum += counts.get(i);
+    return sum;
+  }
+
+  private static int index(int score)
+  {
+    return Math.max(MIN_SCORE, Math.min(MAX_SCORE, score)) - MIN_SCORE + 1;
+  }
+
+  /**
+   * One player on the board, ordered by score from high to low and then by number.
+   */
+  public static final class Entry implements Comparable<Entry>
+  {
+    private final int id;
+    private final int score;
+
+    private Entry(int id, int score)
+    {
+      this.id = id;
+      this.score = score;
+    }
+
+    /**
+     * Getter for the number of the player
+     * @return Return the player number
+     */
+    public int getId()
+    {
+      return id;
+    }
+
+    /**
+     * Getter for the score
+     * @return Return the score
+     */
+    public int getScore()
+    {
+      return score;
+    }
+
+    @Override
+    public int compareTo(Entry other)
+    {
+      if(score != other.score)
+        return Integer.compare(other.score, score);
+      return Integer.compare(id, other.id);
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+      return other instanceof Entry && ((Entry) other).id == id && ((Entry) other).score == score;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * id + score;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package server.model;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * This class holds the words index that is currently used by the games. The index itself is
+ * immutable, reloading builds a complete new index and then swaps the reference, so games
+ * that read the old index are never paused and rounds in progress keep their chosen word.
+ * Only new <code>startGame</code> calls see the new words.
+ * @see server.model.WordIndex
+ * @see server.model.DictionaryWatcher
+ */
+public final class WordDictionary
+{
+  private final Path path; // The words file or the compiled dictionary
+  private volatile WordIndex index; // The index used by new games
+  private volatile long reloadCount; // Number of successful reloads
+  private volatile long lastReloadMillis; // Time it took to build the last index
+
+  private WordDictionary(Path path, WordIndex index, long buildMillis)
+  {
+    this.path = path;
+    this.index = index;
+    this.lastReloadMillis = buildMillis;
+  }
+
+  /**
+   * Loads the words file or the compiled dictionary and builds the first index.
+   * @param wordsFilePath The complete path to the words file or the compiled dictionary.
+   * @return The loaded dictionary.
+   * @throws IOException in case of file problems.
+   */
+  public static WordDictionary load(String wordsFilePath) throws IOException
+  {
+    long start = System.nanoTime();
+    WordIndex index = WordIndex.build(WordRepository.load(wordsFilePath));
+    return new WordDictionary(Paths.get(wordsFilePath), index, (System.nanoTime() - start) / 1000000);
+  }
+
+  /**
+   * Builds a new index from the file and swaps it in. If the file cannot be loaded the
+   * current index is kept.
+   * @return The new index.
+   * @throws IOException in case of file problems.
+   */
+  public synchronized WordIndex reload() throws IOException
+  {
+    long start = System.nanoTime();
+    WordIndex fresh = WordIndex.build(WordRepository.load(path.toString()));
+    lastReloadMillis = (System.nanoTime() - start) / 1000000;
+    index = fresh;
+    reloadCount++;
+    return fresh;
+  }
+
+  /**
+   * Getter for the index that new games should use
+   * @return Return the current index
+   */
+  public WordIndex current()
+  {
+    return index;
+  }
+
+  /**
+   * Getter for the file the words are loaded from
+   * @return Return the path of the file
+   */
+  public Path getPath()
+  {
+    return path;
+  }
+
+  /**
+   * Getter for the number of successful reloads
+   * @return Return the number of reloads
+   */
+  public long getReloadCount()
+  {
+    return reloadCount;
+  }
+
+  /**
+   * Getter for the time it took to build the current index
+   * @return Return the time in milliseconds
+   */
+  public long getLastReloadMillis()
+  {
+    return lastReloadMillis;
+  }
+}
@@ -0,0 +1,19 @@
+package server.model;
+
+/**
+ * Defines the difficulty levels that a word can be chosen by
+ */
+public enum WordDifficulty {
+    /**
+     * Words made of the most common letters
+     */
+    EASY,
+    /**
+     * Words in the middle third of the difficulty scores
+     */
+    MEDIUM,
+    /**
+     * Words made of rare letters
+     */
+    HARD;
+}
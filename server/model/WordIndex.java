@@ -0,0 +1,208 @@
+package server.model;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class indexes a <code>server.model.WordRepository</code> by word length and by
+ * difficulty, so a word with the asked properties can be picked in constant time. The index
+ * is built once from the repository and it is immutable afterwards, everything is kept in
+ * primitive arrays of word numbers.
+ * <p>
+ * The difficulty score of a word is the average rarity of its distinct letters, where the
+ * rarity of a letter comes from how often it appears in the whole dictionary. Words are then
+ * split into three equal sized groups, <code>server.model.WordDifficulty</code> EASY, MEDIUM
+ * and HARD.
+ * @see server.model.WordRepository
+ * @see server.model.WordDifficulty
+ */
+public final class WordIndex
+{
+  /**
+   * Passed as length when the length of the word does not matter.
+   */
+  public static final int ANY_LENGTH = 0;
+
+  private static final int TIERS = WordDifficulty.values().length;
+
+  private final WordRepository words;
+  private final byte[] tiers; // Difficulty of every word, ordinal of WordDifficulty
+  private final int[] byLength; // Word numbers sorted by length and then difficulty
+  private final int[] lengthStart; // Start of (length, difficulty) bucket in byLength, index is length*TIERS+difficulty
+  private final int[] byTier; // Word numbers sorted by difficulty
+  private final int[] tierStart; // Start of each difficulty in byTier
+
+  private WordIndex(WordRepository words, byte[] tiers, int[] byLength, int[] lengthStart, int[] byTier, int[] tierStart)
+  {
+    this.words = words;
+    this.tiers = tiers;
+    this.byLength = byLength;
+    this.lengthStart = lengthStart;
+    this.byTier = byTier;
+    this.tierStart = tierStart;
+  }
+
+  /**
+   * Builds the index, it reads every word once.
+   * @param words The repository to index.
+   * @return The built index.
+   */
+  public static WordIndex build(WordRepository words)
+  {
+    int n = words.size();
+
+    //how often each letter appears in the dictionary
+    long[] letterCount = new long[26];
+    long total = 0;
+    for(int i=0;i<n;i++)
+    {
+      int len = words.wordLength(i);
+      for(int p=0;p<len;p++)
+        letterCount[words.charAt(i, p) - 'a']++;
+      total += len;
+    }
+    long[] rarity = new long[26];
+    for(int c=0;c<26;c++)
+      rarity[c] = (total * 16) / (letterCount[c] + 1);
+
+    //score every word by the average rarity of its distinct letters
+    int[] scores = new int[n];
+    for(int i=0;i<n;i++)
+    {
+      int len = words.wordLength(i);
+      int seen = 0;
+      int distinct = 0;
+      long sum = 0;
+      for(int p=0;p<len;p++)
+      {
+        int c = words.charAt(i, p) - 'a';
+        if((seen & (1 << c)) == 0)
+        {
+          seen |= 1 << c;
+          distinct++;
+          sum += rarity[c];
+        }
+      }
+      scores[i] = (int) Math.min(Integer.MAX_VALUE, sum / distinct);
+    }
+
+    //split the scores in three equal groups
+    int[] sorted = scores.clone();
+    Arrays.sort(sorted);
+    int mediumFrom = sorted[n / 3];
+    int hardFrom = sorted[(2 * n) / 3];
+    byte[] tiers = new byte[n];
+    for(int i=0;i<n;i++)
+      tiers[i] = (byte) (scores[i] >= hardFrom ? WordDifficulty.HARD.ordinal() : scores[i] >= mediumFrom ? WordDifficulty.MEDIUM.ordinal() : WordDifficulty.EASY.ordinal());
+
+    //counting sort by (length, difficulty) and by difficulty
+    int[] lengthStart = new int[(WordRepository.MAX_WORD_LENGTH + 1) * TIERS + 1];
+    int[] tierStart = new int[TIERS + 1];
+    for(int i=0;i<n;i++)
+    {
+      lengthStart[words.wordLength(i) * TIERS + tiers[i] + 1]++;
+      tierStart[tiers[i] + 1]++;
+    }
+    for(int b=1;b<lengthStart.length;b++)
+      lengthStart[b] += lengthStart[b - 1];
+    for(int b=1;b<tierStart.length;b++)
+      tierStart[b] += tierStart[b - 1];
+
+    int[] byLength = new int[n];
+    int[] byTier = new int[n];
+    int[] lengthNext = Arrays.copyOf(lengthStart, lengthStart.length);
+    int[] tierNext = Arrays.copyOf(tierStart, tierStart.length);
+    for(int i=0;i<n;i++)
+    {
+      byLength[lengthNext[words.wordLength(i) * TIERS + tiers[i]]++] = i;
+      byTier[tierNext[tiers[i]]++] = i;
+    }
+
+    return new WordIndex(words, tiers, byLength, lengthStart, byTier, tierStart);
+  }
+
+  /**
+   * Getter for the indexed repository
+   * @return Return the indexed repository
+   */
+  public WordRepository getWords()
+  {
+    return words;
+  }
+
+  /**
+   * Getter for the difficulty of a word
+   * @param index Index of the word in the repository
+   * @return Return the difficulty of the word
+   */
+  public WordDifficulty difficultyOf(int index)
+  {
+    return WordDifficulty.values()[tiers[index]];
+  }
+
+  /**
+   * Counts the words matching the given length and difficulty.
+   * @param length Length of the word or <code>ANY_LENGTH</code>
+   * @param difficulty Difficulty of the word or null for any difficulty
+   * @return Return the number of matching words, 0 for a length no word can have
+   */
+  public int count(int length, WordDifficulty difficulty)
+  {
+    if(length < 0 || length > WordRepository.MAX_WORD_LENGTH)
+      return 0;
+    return end(length, difficulty) - start(length, difficulty);
+  }
+
+  /**
+   * Approximate number of bytes used by the index and the words.
+   * @return Return size of the index in bytes
+   */
+  public long sizeInBytes()
+  {
+    return tiers.length + 4L * (byLength.length + byTier.length + lengthStart.length + tierStart.length)
+        + words.poolLength() + 4L * (words.size() + 1);
+  }
+
+  /**
+   * Selects a random word with the given length and difficulty in constant time.
+   * @param length Length of the word or <code>ANY_LENGTH</code>
+   * @param difficulty Difficulty of the word or null for any difficulty
+   * @return Selected random word
+   * @throws Exception in case of no word matching the request
+   */
+  public String pick(int length, WordDifficulty difficulty) throws Exception
+  {
+    if(length < 0 || length > WordRepository.MAX_WORD_LENGTH)
+      throw new Exception("There is no word with length " + length + ".");
+
+    int from = start(length, difficulty);
+    int to = end(length, difficulty);
+    if(from == to)
+      throw new Exception("There is no word with the requested length and difficulty.");
+
+    int r = from + ThreadLocalRandom.current().nextInt(to - from);
+    if(length != ANY_LENGTH)
+      return words.wordAt(byLength[r]);
+    if(difficulty != null)
+      return words.wordAt(byTier[r]);
+    return words.wordAt(r);
+  }
+
+  private int start(int length, WordDifficulty difficulty)
+  {
+    if(length != ANY_LENGTH)
+      return lengthStart[length * TIERS + (difficulty == null ? 0 : difficulty.ordinal())];
+    if(difficulty != null)
+      return tierStart[difficulty.ordinal()];
+    return 0;
+  }
+
+  private int end(int length, WordDifficulty difficulty)
+  {
+    if(length != ANY_LENGTH)
+      return lengthStart[length * TIERS + (difficulty == null ? TIERS : difficulty.ordinal() + 1)];
+    if(difficulty != null)
+      return tierStart[difficulty.ordinal() + 1];
+    return tiers.length;
+  }
+}
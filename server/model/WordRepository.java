@@ -0,0 +1,313 @@
+package server.model;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * This class keeps all of the refrence words of the hangman game in memory. It is loaded
+ * once when the server starts and then the same instance is shared by every
+ * <code>server.model.Hangman</code> object, so starting a game never touches the file again.
+ * The repository is immutable, so it can be read from any thread without locking.
+ * <p>
+ * Words are not kept as <code>String</code> objects. They are stored in one byte pool and an
+ * int offset table, word N is the bytes between <code>offsets[N]</code> and <code>offsets[N+1]</code>.
+ * The repository can be built from the plain words file (one word per line) or it can be
+ * memory mapped from a compiled dictionary made by <code>server.model.DictionaryCompiler</code>.
+ * The compiled file layout is (big endian):
+ * <pre>
+ * int   MAGIC
+ * short VERSION
+ * short normalization flags
+ * int   number of words (n)
+ * int   length of the byte pool
+ * int[n+1] offsets into the pool
+ * byte[] pool
+ * </pre>
+ * Both ways apply the same normalization: words are lower cased like the guesses that
+ * <code>server.controller.Controller</code> receives, words that are not only made of
+ * letters a-z are dropped and duplicates are removed.
+ * @see server.model.Hangman
+ * @see server.model.DictionaryCompiler
+ */
+public final class WordRepository
+{
+  /**
+   * First 4 bytes of a compiled dictionary ("HGMD").
+   */
+  public static final int MAGIC = 0x48474D44;
+  /**
+   * Version of the compiled dictionary layout.
+   */
+  public static final short VERSION = 1;
+  /**
+   * Normalization flag, words are lower cased.
+   */
+  public static final short FLAG_LOWER_CASE = 1;
+  /**
+   * Normalization flag, only words made of the letters a-z are kept.
+   */
+  public static final short FLAG_LETTERS_ONLY = 2;
+  /**
+   * The normalization applied by this version of the server.
+   */
+  public static final short NORMALIZATION = FLAG_LOWER_CASE | FLAG_LETTERS_ONLY;
+  /**
+   * Longest word that is accepted.
+   */
+  public static final int MAX_WORD_LENGTH = 64;
+
+  private static final int HEADER_LENGTH = 16;
+
+  private final ByteBuffer pool; // Bytes of all words after each other
+  private final IntBuffer offsets; // Start of every word in the pool, plus the end of the last one
+
+  private WordRepository(ByteBuffer pool, IntBuffer offsets)
+  {
+    this.pool = pool;
+    this.offsets = offsets;
+  }
+
+  /**
+   * Loads the repository from the given file. If the file is a compiled dictionary it is
+   * memory mapped, otherwise it is read as a plain words file.
+   * @param wordsFilePath The complete path to the words file or the compiled dictionary.
+   * @return The loaded repository.
+   * @throws IOException in case of file not found, a corrupt dictionary or an empty file.
+   */
+  public static WordRepository load(String wordsFilePath) throws IOException
+  {
+    Path path = Paths.get(wordsFilePath);
+    if(isCompiled(path))
+      return map(path);
+    return parse(path);
+  }
+
+  /**
+   * Reads the plain words file once and builds the repository. Every line is one word.
+   * @param path The complete path to the file containing the refrence words.
+   * @return The loaded repository.
+   * @throws IOException in case of file not found or an empty file.
+   */
+  public static WordRepository parse(Path path) throws IOException
+  {
+    LinkedHashSet<String> set = new LinkedHashSet<String>();
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8))
+    {
+      String wInp;
+      while((wInp = reader.readLine())!=null)
+      {
+        wInp = normalize(wInp);
+        if(wInp != null)
+          set.add(wInp);
+      }
+    }
+
+    if(set.isEmpty())
+      throw new IOException("The specified file does not contain any words.");
+
+    int poolLength = 0;
+    for(String w : set)
+      poolLength += w.length();
+
+    ByteBuffer pool = ByteBuffer.allocate(poolLength);
+    IntBuffer offsets = IntBuffer.allocate(set.size() + 1);
+    for(String w : set)
+    {
+      offsets.put(pool.position());
+      pool.put(w.getBytes(StandardCharsets.US_ASCII));
+    }
+    offsets.put(pool.position());
+    pool.flip();
+    offsets.flip();
+    return new WordRepository(pool.asReadOnlyBuffer(), offsets.asReadOnlyBuffer());
+  }
+
+  /**
+   * Memory maps a compiled dictionary. Nothing is copied on the heap, words are only
+   * read from the mapped file when they are asked for. The header, the offsets and the
+   * words are checked once, so a truncated or corrupt file is refused here and not found
+   * later by a player.
+   * @param path The complete path to the compiled dictionary.
+   * @return The loaded repository.
+   * @throws IOException in case of file not found or a corrupt dictionary.
+   */
+  public static WordRepository map(Path path) throws IOException
+  {
+    MappedByteBuffer file;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+    {
+      file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    if(file.remaining() < HEADER_LENGTH || file.getInt(0) != MAGIC)
+      throw new IOException("The specified file is not a compiled dictionary.");
+    if(file.getShort(4) != VERSION)
+      throw new IOException("Unsupported compiled dictionary version: " + file.getShort(4));
+    if(file.getShort(6) != NORMALIZATION)
+      throw new IOException("The compiled dictionary uses a different normalization, compile it again.");
+
+    int count = file.getInt(8);
+    int poolLength = file.getInt(12);
+    long expected = HEADER_LENGTH + 4L * (count + 1) + poolLength;
+    if(count <= 0 || poolLength < 0 || expected != file.capacity())
+      throw new IOException("The compiled dictionary is corrupt.");
+
+    file.position(HEADER_LENGTH).limit(HEADER_LENGTH + 4 * (count + 1));
+    IntBuffer offsets = file.slice().asIntBuffer();
+    file.limit(file.capacity()).position(HEADER_LENGTH + 4 * (count + 1));
+    ByteBuffer pool = file.slice();
+    check(pool, offsets);
+    return new WordRepository(pool, offsets);
+  }
+
+  /**
+   * Checks that the offsets of a compiled dictionary cut the pool into words of 1 to
+   * <code>MAX_WORD_LENGTH</code> letters a-z, the last offset ending the pool.
+   * @throws IOException if they do not.
+   */
+  private static void check(ByteBuffer pool, IntBuffer offsets) throws IOException
+  {
+    if(offsets.get(0) != 0 || offsets.get(offsets.limit() - 1) != pool.limit())
+      throw new IOException("The compiled dictionary is corrupt, the offsets do not match the pool.");
+    for(int i=1;i<offsets.limit();i++)
+    {
+      int start = offsets.get(i - 1);
+      int length = offsets.get(i) - start;
+      if(length < 1 || length > MAX_WORD_LENGTH || offsets.get(i) > pool.limit())
+        throw new IOException("The compiled dictionary is corrupt at word " + (i - 1) + ".");
+      for(int pos=start;pos<start + length;pos++)
+      {
+        byte letter = pool.get(pos);
+        if(letter < 'a' || letter > 'z')
+          throw new IOException("The compiled dictionary is corrupt at word " + (i - 1) + ".");
+      }
+    }
+  }
+
+  /**
+   * Writes this repository as a compiled dictionary. The file is written next to the target
+   * and then moved over it, so a server that has the old file mapped is not affected.
+   * @param path The complete path of the compiled dictionary.
+   * @throws IOException in case of file problems.
+   */
+  public void writeTo(Path path) throws IOException
+  {
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + 4 * offsets.limit());
+    header.putInt(MAGIC).putShort(VERSION).putShort(NORMALIZATION).putInt(size()).putInt(pool.limit());
+    for(int i=0;i<offsets.limit();i++)
+      header.putInt(offsets.get(i));
+    header.flip();
+
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      ByteBuffer body = pool.duplicate();
+      body.clear();
+      while(header.hasRemaining() || body.hasRemaining())
+        channel.write(new ByteBuffer[] {header, body});
+      channel.force(true);
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Checks whether the file starts with the compiled dictionary <code>MAGIC</code>.
+   * @param path The complete path to the file.
+   * @return true if it is a compiled dictionary.
+   * @throws IOException in case of file not found.
+   */
+  public static boolean isCompiled(Path path) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+    {
+      ByteBuffer head = ByteBuffer.allocate(4);
+      while(head.hasRemaining() && channel.read(head) != -1);
+      return !head.hasRemaining() && head.getInt(0) == MAGIC;
+    }
+  }
+
+  /**
+   * Applies the dictionary normalization to one line of the words file.
+   * @param line One line of the words file.
+   * @return The lower cased word, or null if the word should be dropped.
+   */
+  public static String normalize(String line)
+  {
+    String w = line.trim().toLowerCase(Locale.ROOT);
+    if(w.isEmpty() || w.length() > MAX_WORD_LENGTH)
+      return null;
+    for(int i=0;i<w.length();i++)
+    {
+      char c = w.charAt(i);
+      if(c < 'a' || c > 'z')
+        return null;
+    }
+    return w;
+  }
+
+  /**
+   * Getter for the number of words
+   * @return Return the number of words in the repository
+   */
+  public int size()
+  {
+    return offsets.limit() - 1;
+  }
+
+  /**
+   * Getter for the number of bytes used by the words
+   * @return Return the length of the byte pool
+   */
+  public int poolLength()
+  {
+    return pool.limit();
+  }
+
+  /**
+   * Getter for the length of a word, without building the word itself
+   * @param index Index of the word, from 0 to <code>size()-1</code>
+   * @return Return the length of the word at the index
+   */
+  public int wordLength(int index)
+  {
+    return offsets.get(index + 1) - offsets.get(index);
+  }
+
+  /**
+   * Getter for one letter of a word, without building the word itself
+   * @param index Index of the word, from 0 to <code>size()-1</code>
+   * @param pos Position of the letter in the word
+   * @return Return the letter
+   */
+  public char charAt(int index, int pos)
+  {
+    return (char) pool.get(offsets.get(index) + pos);
+  }
+
+  /**
+   * Getter for a word by its index
+   * @param index Index of the word, from 0 to <code>size()-1</code>
+   * @return Return the word at the index
+   */
+  public String wordAt(int index)
+  {
+    int start = offsets.get(index);
+    byte[] bytes = new byte[offsets.get(index + 1) - start];
+    pool.get(start, bytes);
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Selects a word randomly. It does not do any I/O.
+   * @return Selected random word
+   */
+  public String randomWord()
+  {
+    return wordAt(ThreadLocalRandom.current().nextInt(size()));
+  }
+}
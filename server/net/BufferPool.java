@@ -0,0 +1,160 @@
+package server.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A shared pool of direct buffers, cut from one slab of direct memory. A buffer is borrowed only
+ * while a read or a write is in progress and it is given back right after, so idle connections
+ * hold no direct memory at all. The free buffers are kept in a lock-free stack of slot numbers,
+ * borrowing and releasing are one compare-and-set and create no objects.
+ * <p>
+ * When every buffer is borrowed, a heap buffer is handed out instead and the miss is counted,
+ * a miss count that keeps growing means the pool is too small.
+ * @see server.net.PooledBuffer
+ */
+public class BufferPool
+{
+  private static final int EMPTY = -1;
+
+  private final int bufferSize;
+  private final PooledBuffer[] buffers; // one lease object per slot, reused for ever
+  private final int[] next; // next free slot under each free slot
+  private final AtomicLong head = new AtomicLong(pack(EMPTY, 0)); // top free slot and a stamp against ABA
+  private final AtomicInteger inUse = new AtomicInteger();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Allocates the slab and cuts it in buffers.
+   * @param count Number of buffers.
+   * @param bufferSize Size of every buffer in bytes.
+   * @throws IllegalArgumentException if the slab would be over 2 GiB, see <code>maxBuffers</code>.
+   */
+  BufferPool(int count, int bufferSize)
+  {
+    if (count > maxBuffers(bufferSize))
+    {
+      throw new IllegalArgumentException(count + " buffers of " + bufferSize + " bytes do not fit in one slab, at most " + maxBuffers(bufferSize) + " do.");
+    }
+    this.bufferSize = bufferSize;
+    this.buffers = new PooledBuffer[count];
+    this.next = new int[count];
+
+    ByteBuffer slab = ByteBuffer.allocateDirect(count * bufferSize);
+    for (int i = 0; i < count; i++)
+    {
+      slab.limit((i + 1) * bufferSize).position(i * bufferSize);
+      buffers[i] = new PooledBuffer(this, slab.slice(), i);
+      push(i);
+    }
+  }
+
+  /**
+   * Tells how many buffers fit in one slab, a direct buffer has at most
+   * <code>Integer.MAX_VALUE</code> bytes.
+   * @param bufferSize Size of every buffer in bytes.
+   * @return The most buffers a pool can have.
+   */
+  static int maxBuffers(int bufferSize)
+  {
+    return Integer.MAX_VALUE / bufferSize;
+  }
+
+  /**
+   * Borrows a cleared buffer. It must be given back with <code>PooledBuffer.release</code>.
+   * @return A pooled buffer, or a heap buffer when the pool is empty.
+   */
+  PooledBuffer borrow()
+  {
+    while (true)
+    {
+      long h = head.get();
+      int slot = (int) h;
+      if (slot == EMPTY)
+      {
+        misses.increment();
+        return new PooledBuffer(null, ByteBuffer.allocate(bufferSize), EMPTY);
+      }
+      if (head.compareAndSet(h, pack(next[slot], (int) (h >>> 32) + 1)))
+      {
+        inUse.incrementAndGet();
+        PooledBuffer lease = buffers[slot];
+        lease.buffer().clear();
+        return lease;
+      }
+    }
+  }
+
+  /**
+   * Gives a buffer back, called by <code>PooledBuffer.release</code>.
+   * @param slot The slot of the buffer.
+   */
+  void release(int slot)
+  {
+    inUse.decrementAndGet();
+    push(slot);
+  }
+
+  private void push(int slot)
+  {
+    while (true)
+    {
+      long h = head.get();
+      next[slot] = (int) h;
+      if (head.compareAndSet(h, pack(slot, (int) (h >>> 32) + 1)))
+        return;
+    }
+  }
+
+  private static long pack(int slot, int stamp)
+  {
+    return ((long) stamp << 32) | (slot & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Getter for the number of buffers in the pool
+   * @return Return the pool size
+   */
+  public int getSize()
+  {
+    return buffers.length;
+  }
+
+  /**
+   * Getter for the size of one buffer
+   * @return Return the buffer size in bytes
+   */
+  public int getBufferSize()
+  {
+    return bufferSize;
+  }
+
+  /**
+   * Getter for the number of times the pool was empty
+   * @return Return the borrow misses
+   */
+  public long getMisses()
+  {
+    return misses.sum();
+  }
+
+  /**
+   * Getter for the direct memory that is borrowed right now
+   * @return Return the bytes in use
+   */
+  public long getDirectBytesInUse()
+  {
+    return (long) inUse.get() * bufferSize;
+  }
+
+  /**
+   * Converts the pool state to string
+   * @return String summary of the pool
+   */
+  public String toString()
+  {
+    return "buffers=" + getSize() + "x" + bufferSize + " directInUse=" + getDirectBytesInUse() + " misses=" + getMisses();
+  }
+}
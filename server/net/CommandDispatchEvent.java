@@ -0,0 +1,36 @@
+package server.net;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of one command run by a player, from taking it out of the inbox to
+ * putting its answer in the batch. The time the command waited for a thread of the executor
+ * after it was read is a field of its own, and so are the commands of the player still waiting
+ * behind it.
+ * @see server.net.Player
+ * @see server.net.SelectLoopEvent
+ */
+@Name("hangman.CommandDispatch")
+@Label("Command Dispatch")
+@Category({"Hangman", "Commands"})
+@StackTrace(false)
+class CommandDispatchEvent extends Event
+{
+  @Label("Player")
+  int player;
+
+  @Label("Command")
+  String command;
+
+  @Label("Legacy")
+  boolean legacy;
+
+  @Label("Queue Wait")
+  @Description("From the read of the command until it started to run")
+  @Timespan(Timespan.NANOSECONDS)
+  long queueWait;
+
+  @Label("Pending")
+  @Description("Commands of the player still in the inbox when this one started")
+  int pending;
+}
@@ -0,0 +1,97 @@
+package server.net;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+/**
+ * Defines where the game commands of the players run. The commands of one player always run
+ * in order through its <code>server.net.SerialExecutor</code>, the mode only chooses the threads.
+ * It is chosen at startup with <code>exec=pool</code> or <code>exec=virtual</code>.
+ * @see server.net.SerialExecutor
+ * @see server.net.ServerConfig
+ */
+enum ExecutionMode {
+    /**
+     * Commands run on <code>ForkJoinPool.commonPool</code>, sized to the number of processors.
+     */
+    POOL("pool"),
+    /**
+     * Every drain of a player's mailbox runs on a new virtual thread, so a command that blocks
+     * (persistence, slow lookups) does not take a pool thread away from other players.
+     * Virtual threads need Java 21, on older runtimes the server does not start with this mode.
+     */
+    VIRTUAL("virtual");
+
+    private String name;
+    private ExecutionMode(String inp)
+    {
+      this.name = inp;
+    }
+
+    public String toString()
+    {
+      return this.name;
+    }
+
+    /**
+     * Finds the mode by its name.
+     * @param name The name given on the command line.
+     * @return The mode or null if the name is unknown.
+     */
+    static ExecutionMode of(String name)
+    {
+      for (ExecutionMode mode : values())
+        if (mode.name.equals(name))
+          return mode;
+      return null;
+    }
+
+    /**
+     * Tells if this mode can run on this Java runtime.
+     * @return false for virtual threads before Java 21.
+     */
+    boolean isAvailable()
+    {
+      return this != VIRTUAL || virtualFactory() != null;
+    }
+
+    /**
+     * Creates the executor of this mode.
+     * @return The executor the mailboxes drain on.
+     * @throws IllegalStateException if the mode is not available, see <code>isAvailable</code>.
+     */
+    Executor createExecutor()
+    {
+      if (this == POOL)
+        return ForkJoinPool.commonPool();
+
+      Method factory = virtualFactory();
+      if (factory == null)
+        throw new IllegalStateException("Virtual threads are not available on Java " + Runtime.version().feature() + ", start with exec=pool.");
+      try
+      {
+        return (Executor) factory.invoke(null);
+      }
+      catch (ReflectiveOperationException ex)
+      {
+        throw new IllegalStateException("Could not create the virtual thread executor: " + ex);
+      }
+    }
+
+    /**
+     * Looks the factory of virtual threads up by reflection, so the server still compiles and
+     * runs before Java 21.
+     * @return The factory method, or null if there are no virtual threads.
+     */
+    private static Method virtualFactory()
+    {
+      try
+      {
+        return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      }
+      catch (NoSuchMethodException ex)
+      {
+        return null;
+      }
+    }
+}
@@ -5,248 +5,406 @@ import java.util.*;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.nio.charset.StandardCharsets;
+import com.sun.net.httpserver.HttpServer;
+import server.model.*;
+import common.*;
 
 
 /**
  * The GameServer class is responsible for communicating the clients. Given the port
  * to the main function argument, it listens to all incomming connections and creates
- * a <code>server.net.Player</code> object for each of them and runs it on a seperate thread.
+ * a <code>server.net.Player</code> object for each of them.
+ * One acceptor thread accepts the connections and hands them round-robin to a number of
+ * <code>server.net.Reactor</code> threads, each with its own selector, which do all the reads
+ * and writes of their players. The reactor of a player is its id modulo the number of
+ * reactors, so a message is routed to the right reactor without any lookup. The number of
+ * reactors is the number of processors by default and can be set with
+ * <code>reactors=N</code> on the command line. The game commands run on the common pool or,
+ * with <code>exec=virtual</code>, on virtual threads of Java 21. A player that does not read its answers
+ * is throttled and then disconnected, see <code>maxQueuedBytes=N</code>. Reads and writes borrow
+ * direct buffers from one shared pool of <code>pooledBuffers=N</code> buffers.
+ * The words file is loaded only once at startup into a <code>server.model.WordDictionary</code>
+ * which is shared by all players. If a compiled dictionary exists it is memory mapped instead.
+ * The file is watched and reloaded in the background when it changes, without a restart. With
+ * a compiled dictionary the words file is watched too, and compiled again when it changes.
+ * The traffic is counted in a <code>server.net.ServerMetrics</code>, which players read with
+ * the <code>STATS</code> command and, with <code>httpPort=N</code>, a local tool reads from
+ * <code>http://localhost:N/stats</code>.
+ * Players that join the same <code>server.net.Room</code> guess the same word, its changes are
+ * broadcast to every member through the reactors.
  * @see server.net.Player
+ * @see server.net.Reactor
+ * @see server.net.ServerConfig
+ * @see server.net.ServerMetrics
+ * @see server.model.WordDictionary
+ * @see server.model.DictionaryWatcher
  */
 public class GameServer
 {
   public static int idNumerator = 0;
 
-  private static final int LINGER_TIME = 5000; //socket linger time
-  private static final int TIMEOUT_TIME = 1500000; //socket timeout time
+  static final int TIMEOUT_TIME = 1500000; //default idle timeout of the players in milliseconds
+  static final int READ_BUFFER_SIZE = Frame.HEADER_LENGTH + Constants.MAX_MSG_LENGTH; //fits any frame
+  static final int RESPONSE_BUFFER_SIZE = 256; //fits any RESULT answer, longer answers get a heap buffer
+  private static final int ACCEPT_RETRY_MILLIS = 100; //pause after a failed accept, for example when no file descriptor is left
   public static final String WORDS_FILE_PATH = "words.txt";
+  public static final String COMPILED_WORDS_FILE_PATH = "words.bin"; //made by server.model.DictionaryCompiler
+
+  private final ServerConfig config;
+  private final OutboundCounters outboundCounters = new OutboundCounters();
+  private final ServerMetrics metrics = new ServerMetrics();
+  private final BufferPool bufferPool;
+  private final BufferPool responsePool;
+  private final LongAdder reapedSessions = new LongAdder();
+  private final SessionStore sessions;
+  private final Leaderboard leaderboard = new Leaderboard();
+  private final RoomRegistry rooms = new RoomRegistry(this);
+  private Reactor[] reactors;
+  private ServerSocketChannel listeningSocketChannel;
+  private Executor commandExecutor;
+  private WordDictionary dictionary;
 
-  private final Queue<MessageToSend> messagesToSend = new ArrayDeque<>();
 
-  private int portNo = 8080;
-  private Selector selector;
-  private ServerSocketChannel listeningSocketChannel;
-  private volatile boolean isTimeToSend = false;
+  private GameServer(ServerConfig config)
+  {
+      this.config = config;
+      this.bufferPool = new BufferPool(config.getPooledBuffers(), READ_BUFFER_SIZE);
+      this.responsePool = new BufferPool(config.getResponseBuffers(), RESPONSE_BUFFER_SIZE);
+      this.sessions = new SessionStore(config.getSessionTtlSeconds() * 1000L, config.getMaxDroppedSessions());
+  }
 
+  /**
+   * Getter for the words dictionary shared between all players
+   * @return The words dictionary loaded at startup
+   */
+  public WordDictionary getDictionary()
+  {
+      return dictionary;
+  }
 
+  /**
+   * Getter for the settings of the server
+   * @return The settings given on the command line
+   */
+  ServerConfig getConfig()
+  {
+      return config;
+  }
 
+  /**
+   * Getter for the counters of the messages waiting to be written
+   * @return The outbound counters of all reactors
+   */
+  public OutboundCounters getOutboundCounters()
+  {
+      return outboundCounters;
+  }
 
   /**
-   * Sends the specified message to all connected clients
+   * Getter for the counters of the connections, the traffic and the commands
+   * @return The metrics of the server
+   */
+  public ServerMetrics getMetrics()
+  {
+      return metrics;
+  }
+
+  /**
+   * Getter for the pool of direct buffers used for reads and writes
+   * @return The shared buffer pool
+   */
+  public BufferPool getBufferPool()
+  {
+      return bufferPool;
+  }
+
+  /**
+   * Getter for the pool of small buffers the answers are encoded into
+   * @return The shared response pool
+   */
+  public BufferPool getResponsePool()
+  {
+      return responsePool;
+  }
+
+  /**
+   * Getter for the board of the scores of all players
+   * @return The leaderboard
+   */
+  public Leaderboard getLeaderboard()
+  {
+      return leaderboard;
+  }
+
+  /**
+   * Getter for the rooms where players guess the same word
+   * @return The room registry
+   */
+  RoomRegistry getRooms()
+  {
+      return rooms;
+  }
+
+  /**
+   * Getter for the sessions of the players, kept for a while after a connection drops
+   * @return The session store
+   */
+  public SessionStore getSessions()
+  {
+      return sessions;
+  }
+
+  /**
+   * Getter for the number of players disconnected for being idle
+   * @return The reaped sessions of all reactors
+   */
+  public long getReapedSessions()
+  {
+      return reapedSessions.sum();
+  }
+
+  void reaped(int count)
+  {
+      reapedSessions.add(count);
+  }
+
+  /**
+   * Getter for the executor the commands of the players run on
+   * @return The executor chosen by the execution mode
+   */
+  Executor getCommandExecutor()
+  {
+      return commandExecutor;
+  }
+
+  /**
+   * Sends the specified message to a connected client. It can be called from any thread.
    *
-   * @param msg The message to be sent to player with id
+   * @param msg The encoded message to be sent to player with id
    * @param id Send to player with id
    */
-  public void sendMessage(String msg,int id)
+  public void sendMessage(ByteBuffer msg,int id)
   {
-      isTimeToSend = true;
-      ByteBuffer completeMsg = ByteBuffer.wrap(msg.getBytes());
-      synchronized (messagesToSend)
-      {
-          messagesToSend.add(new MessageToSend(completeMsg,id));
-      }
-      selector.wakeup();
+      sendMessage(PooledBuffer.of(msg), id);
   }
 
+  /**
+   * Sends a message held in a pooled buffer, the buffer is released when it is written or
+   * dropped. It can be called from any thread.
+   *
+   * @param msg The encoded message, between position and limit
+   * @param id Send to player with id
+   */
+  void sendMessage(PooledBuffer msg,int id)
+  {
+      reactorOf(id).sendMessage(msg, id);
+  }
 
+  /**
+   * Closes the player with the id after the messages queued for it so far are written. It
+   * can be called from any thread.
+   * @param id The id of the player.
+   */
+  void closeAfterWriting(int id)
+  {
+      reactorOf(id).closeAfterWriting(id);
+  }
 
   /**
-   * @param args uses one cmd argument, the port number. by default it is 8080
+   * Forgets the player with the id and cancels its key. It can be called from any thread,
+   * the reactor of the player does the work.
+   * @param id The id of the player.
    */
-  public static void main(String[] args)
+  public void removePlayerById(int id)
   {
-      GameServer server = new GameServer();
+      reactorOf(id).removePlayerById(id);
+  }
 
-      if(server.validatePort(args))
-        server.portNo = Integer.parseInt(args[0]);
+  /**
+   * Sends one message to many players of the same reactor, as one item of its queue. It can
+   * be called from any thread.
+   *
+   * @param reactor The index of the reactor, see <code>reactorIndexOf</code>
+   * @param msg The encoded message, read only, the reactor queues one view of it for all the players
+   * @param ids The ids of the players, not changed anymore by the caller
+   */
+  void broadcast(int reactor, ByteBuffer msg, int[] ids)
+  {
+      reactors[reactor].broadcast(msg, ids);
+  }
 
-      server.run();
+  /**
+   * Getter for the number of reactor threads
+   * @return Return the number of reactors
+   */
+  int getReactorCount()
+  {
+      return reactors.length;
   }
 
+  /**
+   * Tells which reactor has the player of the id.
+   * @param id The id of the player.
+   * @return The index of the reactor.
+   */
+  int reactorIndexOf(int id)
+  {
+      return Math.floorMod(id, reactors.length);
+  }
 
-  private void run()
+  private Reactor reactorOf(int id)
   {
-      try
-      {
-          selector = Selector.open();
-          listeningSocketChannel = ServerSocketChannel.open();
-          listeningSocketChannel.configureBlocking(false);
-          listeningSocketChannel.bind(new InetSocketAddress(portNo));
-          listeningSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+      return reactors[reactorIndexOf(id)];
+  }
 
-          while (true)
-          {
-              if (isTimeToSend)
-              {
-                  synchronized (messagesToSend)
-                  {
-                      MessageToSend msgToSend;
-                      while ((msgToSend = messagesToSend.poll()) != null)
-                      {
-                        //writeOperationForTheClient
-                        for (SelectionKey key : selector.keys())
-                        {
-                            Player player = (Player) key.attachment();
-                            if ((key.channel() instanceof SocketChannel) && (key.isValid()) && (player!=null))
-                            {
-                                if(player.getId() == msgToSend.getId())
-                                {
-                                  key.interestOps(SelectionKey.OP_WRITE);
-                                }
-                            }
-                        }
-
-                        //appendMsgToClientQueue
-                        for (SelectionKey key : selector.keys())
-                        {
-                            Player player = (Player) key.attachment();
-                            if (player == null)
-                            {
-                                continue;
-                            }
-                            if(player.getId() == msgToSend.getId())
-                            {
-                              synchronized (player.messagesToSend)
-                              {
-                                  player.queueMsgToSend(msgToSend.getMessage());
-                              }
-                            }
-                        }
-                      }
-                  }
-                  isTimeToSend = false;
-              }
 
+  /**
+   * @param args the port number, by default it is 8080, followed by optional settings
+   * like <code>reactors=N</code>, see <code>server.net.ServerConfig</code>
+   */
+  public static void main(String[] args)
+  {
+      GameServer server = new GameServer(ServerConfig.parse(args));
 
-              selector.select();
-              Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
-              while (iterator.hasNext())
-              {
-                  SelectionKey key = iterator.next();
-                  iterator.remove();
-                  if (!key.isValid())
-                  {
-                      continue;
-                  }
-                  if (key.isAcceptable())
-                  {
-                      //startHandler(key)
-                      ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
-                      SocketChannel clientChannel = serverSocketChannel.accept();
-                      clientChannel.configureBlocking(false);
-
-                      GameServer.idNumerator++;
-                      Player player = new Player(this, clientChannel,GameServer.idNumerator);
-
-                      clientChannel.register(selector, SelectionKey.OP_WRITE, player);
-                      clientChannel.setOption(StandardSocketOptions.SO_LINGER, LINGER_TIME);
-                  }
-                  else if (key.isReadable())
-                  {
-                      //recvFromClient(key)
-                      Player player = (Player) key.attachment();
-                      try
-                      {
-                          player.recieveMessage();
-                      }
-                      catch (IOException clientHasClosedConnection)
-                      {
-                          removePlayer(key);
-                      }
-                  }
-                  else if (key.isWritable())
-                  {
-                      //sendToClient(key)
-                      Player player = (Player) key.attachment();
-                      try
-                      {
-                          player.sendAll();
-                          key.interestOps(SelectionKey.OP_READ);
-                      }
-                      catch (Exception ex)
-                      {
-                          removePlayer(key);
-                      }
-                  }
-              }
-          }
+      try
+      {
+        String path = new File(COMPILED_WORDS_FILE_PATH).canRead() ? COMPILED_WORDS_FILE_PATH : WORDS_FILE_PATH;
+        server.dictionary = WordDictionary.load(path);
+        System.out.println("Loaded " + server.dictionary.current().getWords().size() + " words from " + path
+            + ", index size " + server.dictionary.current().sizeInBytes() + " bytes, took " + server.dictionary.getLastReloadMillis() + " ms.");
       }
-      catch (Exception e)
+      catch (IOException ex)
       {
-          System.err.println("Server failure.");
+        System.err.println("Hangman words file initialization failure: " + ex.getMessage());
+        return;
       }
+
+      Path source = Paths.get(WORDS_FILE_PATH);
+      boolean compiled = !server.dictionary.getPath().equals(source);
+      new DictionaryWatcher(server.dictionary, compiled && Files.isReadable(source) ? source : null).start();
+      server.run();
   }
 
 
-  public void removePlayer(SelectionKey clientKey) throws IOException
+  /**
+   * Describes everything the server counts, the answer of <code>STATS</code> and the stats page.
+   * @return The counters as lines of text
+   */
+  String statsReport()
   {
-      Player player = (Player) clientKey.attachment();
-      player.disconnect();
-      clientKey.cancel();
+      return metrics + "\noutbound " + outboundCounters
+          + "\nbuffers misses=" + bufferPool.getMisses() + " responses misses=" + responsePool.getMisses()
+          + "\nreaped=" + getReapedSessions() + " " + sessions + " leaderboard=" + leaderboard.size() + " " + rooms;
   }
 
-  public void removePlayerById(int id)
+  /**
+   * Serves the stats report on <code>/stats</code> of the loopback address, when
+   * <code>httpPort</code> is set. The page is made by the one thread of the http server.
+   * @throws IOException in case the port cannot be bound.
+   */
+  private void startHttp() throws IOException
   {
-    try
-    {
-        selector = Selector.open();
-        for (SelectionKey key : selector.keys())
-        {
-            Player player = (Player) key.attachment();
-            if ((key.channel() instanceof SocketChannel) && (key.isValid()) && (player!=null))
-            {
-                if(player.getId() == id)
-                {
-                  key.cancel();
-                }
-            }
-        }
-    }
-    catch(Exception ex)
-    {
-      
-    }
-  }
-
-
-  private Boolean validatePort(String[] arg)
-  {
-      if(arg.length==0)
-        return false;
-
-      try
+      int port = config.getHttpPort();
+      if (port == 0)
       {
-        int prt = Integer.parseInt(arg[0]);
-        if( (prt < 1024) || (prt > 65535) )
-          throw new Exception();
+          return;
       }
-      catch (Exception e)
+      HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      http.createContext("/stats", exchange -> {
+          byte[] page = (statsReport() + "\n").getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+          exchange.sendResponseHeaders(200, page.length);
+          try (OutputStream out = exchange.getResponseBody())
+          {
+              out.write(page);
+          }
+      });
+      http.start();
+      System.out.println("Stats on http://localhost:" + port + "/stats");
+  }
+
+  /**
+   * Prints the stats report every <code>statsSeconds</code> on a daemon thread, to see the
+   * traffic, the write calls per answer and the pools while the server runs.
+   */
+  private void startStats()
+  {
+      int seconds = config.getStatsSeconds();
+      if (seconds == 0)
       {
-        System.err.println("The entered port number is corrupt. Going on with the default.");
-        return false;
+          return;
       }
-
-      return true;
+      Thread stats = new Thread(() -> {
+          while (true)
+          {
+              try
+              {
+                  Thread.sleep(seconds * 1000L);
+              }
+              catch (InterruptedException ex)
+              {
+                  return;
+              }
+              System.out.println(statsReport());
+          }
+      }, "stats");
+      stats.setDaemon(true);
+      stats.start();
   }
 
-
-  private class MessageToSend
+  private void run()
   {
-    private int id;
-    private ByteBuffer message;
-    public MessageToSend(ByteBuffer m,int i)
-    {
-      id = i;
-      message = m;
-    }
-    public int getId()
-    {
-      return id;
-    }
-    public ByteBuffer getMessage()
-    {
-      return message;
-    }
+      try
+      {
+          commandExecutor = config.getExecutionMode().createExecutor();
+          reactors = new Reactor[config.getReactors()];
+          for (int i = 0; i < reactors.length; i++)
+          {
+              reactors[i] = new Reactor(this, i);
+              reactors[i].start();
+          }
+
+          //acceptor, the accept calls block on this thread
+          listeningSocketChannel = ServerSocketChannel.open();
+          listeningSocketChannel.bind(new InetSocketAddress(config.getPortNo()));
+          System.out.println("Listening on port " + config.getPortNo() + " with " + reactors.length + " reactors, commands run on " + config.getExecutionMode() + ".");
+          System.out.println("Buffer pool: " + bufferPool);
+          System.out.println("Response pool: " + responsePool);
+          startStats();
+          startHttp();
+
+          while (true)
+          {
+              SocketChannel clientChannel;
+              try
+              {
+                  clientChannel = listeningSocketChannel.accept();
+              }
+              catch (ClosedChannelException ex)
+              {
+                  throw ex;
+              }
+              catch (IOException ex)
+              {
+                  //one failed accept, like too many open files, should not stop the server
+                  metrics.acceptFailed();
+                  System.err.println("Could not accept a connection: " + ex);
+                  Thread.sleep(ACCEPT_RETRY_MILLIS);
+                  continue;
+              }
+              metrics.accepted();
+              GameServer.idNumerator++;
+              reactorOf(GameServer.idNumerator).register(clientChannel, GameServer.idNumerator);
+          }
+      }
+      catch (Exception e)
+      {
+          System.err.println("Server failure, the server stops: " + e);
+      }
   }
 
 }
@@ -0,0 +1,163 @@
+package server.net;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Checks what is left in the queue of a player after a gathering write that the socket takes
+ * only a part of. A fake channel takes a few bytes per write, like a full socket, and the
+ * queue is released the way <code>server.net.Player</code> does after each write. Two players
+ * write in turns and share one broadcast message, each must write it from its own position.
+ * Every message must arrive once, in order, and nothing may be released before it is written.
+ * <pre>
+ * java -classpath build/ server.net.GatheringWriteTest
+ * </pre>
+ * @see server.net.Player
+ */
+public class GatheringWriteTest
+{
+  public static void main(String[] args)
+  {
+    try
+    {
+      String[] messages = { "aaaaa", "bbbbb", "ccccc" };
+      //how many bytes the socket takes per write: inside a message, on a border, nothing
+      check(messages, new int[] { 7, 3 });
+      check(messages, new int[] { 5, 5, 5 });
+      check(messages, new int[] { 1, 13, 1 });
+      check(messages, new int[] { 0, 15 });
+      System.out.println("All gathering writes are fine.");
+    }
+    catch (Exception e)
+    {
+      System.out.println(e);
+      System.exit(1);
+    }
+  }
+
+  private static void check(String[] messages, int[] takes) throws IOException
+  {
+    //two players of one reactor, the middle message is a broadcast both have queued
+    PooledBuffer shared = PooledBuffer.shared(ByteBuffer.wrap(messages[messages.length / 2].getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer());
+    Writer first = new Writer(messages, shared);
+    Writer second = new Writer(messages, shared);
+    String expected = String.join("", messages);
+
+    //then the socket takes everything, a few writes because the gather is small
+    int[] writes = Arrays.copyOf(takes, takes.length + messages.length);
+    Arrays.fill(writes, takes.length, writes.length, Integer.MAX_VALUE);
+    for (int i = 0; i < writes.length; i++)
+    {
+      //the second player writes a little more each time, so the two are never at the same byte
+      first.write(writes[i], takes, expected);
+      second.write(writes[i] == Integer.MAX_VALUE ? writes[i] : writes[i] + 1, takes, expected);
+    }
+    first.done(takes, expected);
+    second.done(takes, expected);
+  }
+
+  /**
+   * The queue of one player and the socket it writes to, written the way
+   * <code>server.net.Player</code> does.
+   */
+  private static class Writer
+  {
+    private final Queue<PooledBuffer> queue = new ArrayDeque<>();
+    private final ShortChannel channel = new ShortChannel();
+    private final ByteBuffer[] gather = new ByteBuffer[2]; //smaller than the queue, like MAX_GATHER of the reactor
+    private final ServerMetrics metrics = new ServerMetrics();
+    private int headWritten;
+
+    private Writer(String[] messages, PooledBuffer shared)
+    {
+      for (int i = 0; i < messages.length; i++)
+      {
+        queue.add(i == messages.length / 2 ? shared : PooledBuffer.of(ByteBuffer.wrap(messages[i].getBytes(StandardCharsets.US_ASCII))));
+      }
+    }
+
+    private void write(int take, int[] takes, String expected) throws IOException
+    {
+      int count = Player.gather(queue, gather, headWritten);
+      channel.budget = take;
+      channel.write(gather, 0, count);
+      int released = Player.releaseWritten(queue, count, metrics);
+      headWritten = Player.headWritten(queue, released, count);
+      Arrays.fill(gather, 0, count, null);
+
+      long left = 0;
+      boolean head = true;
+      for (PooledBuffer queued : queue)
+      {
+        left += queued.remainingFor(head ? headWritten : 0);
+        head = false;
+      }
+      if (channel.out.size() + left != expected.length())
+      {
+        throw new IllegalStateException("After writes of " + Arrays.toString(takes) + ": " + channel.out.size()
+            + " bytes written and " + left + " queued, expected " + expected.length() + " in total");
+      }
+    }
+
+    private void done(int[] takes, String expected)
+    {
+      String written = channel.out.toString(StandardCharsets.US_ASCII);
+      if (!queue.isEmpty() || !written.equals(expected))
+      {
+        throw new IllegalStateException("After writes of " + Arrays.toString(takes) + ": wrote " + written
+            + " with " + queue.size() + " messages left, expected " + expected);
+      }
+    }
+  }
+
+  /**
+   * Takes at most <code>budget</code> bytes per write, moving the positions like a socket does.
+   */
+  private static class ShortChannel implements GatheringByteChannel
+  {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int budget;
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+    {
+      long written = 0;
+      for (int i = offset; i < offset + length && budget > 0; i++)
+      {
+        while (srcs[i].hasRemaining() && budget > 0)
+        {
+          out.write(srcs[i].get());
+          budget--;
+          written++;
+        }
+      }
+      return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs)
+    {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+    {
+      return (int) write(new ByteBuffer[] { src }, 0, 1);
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+}
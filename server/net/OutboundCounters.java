@@ -0,0 +1,117 @@
+package server.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what happens to the messages waiting to be written to the players, summed over all
+ * reactors. It can be read from any thread.
+ * @see server.net.Player
+ */
+public class OutboundCounters
+{
+  private final AtomicLong bytesQueued = new AtomicLong(); // bytes waiting in all player queues
+  private final AtomicLong highWaterMark = new AtomicLong(); // most bytes ever waiting for one player
+  private final LongAdder throttled = new LongAdder(); // times reading from a player was paused
+  private final LongAdder shed = new LongAdder(); // players disconnected for not reading
+  private final LongAdder writeCalls = new LongAdder(); // write system calls to the players
+  private final LongAdder responses = new LongAdder(); // answers made for the players
+
+  void queued(long bytes, long playerQueuedBytes)
+  {
+    bytesQueued.addAndGet(bytes);
+    if (playerQueuedBytes > highWaterMark.get())
+      highWaterMark.accumulateAndGet(playerQueuedBytes, Math::max);
+  }
+
+  void written(long bytes)
+  {
+    bytesQueued.addAndGet(-bytes);
+  }
+
+  void throttled()
+  {
+    throttled.increment();
+  }
+
+  void shed()
+  {
+    shed.increment();
+  }
+
+  void writeCall()
+  {
+    writeCalls.increment();
+  }
+
+  void response()
+  {
+    responses.increment();
+  }
+
+  /**
+   * Getter for the bytes waiting to be written
+   * @return Return the bytes queued for all players
+   */
+  public long getBytesQueued()
+  {
+    return bytesQueued.get();
+  }
+
+  /**
+   * Getter for the largest queue of one player
+   * @return Return the high-water mark in bytes
+   */
+  public long getHighWaterMark()
+  {
+    return highWaterMark.get();
+  }
+
+  /**
+   * Getter for the number of times a slow player was throttled
+   * @return Return the number of throttles
+   */
+  public long getThrottled()
+  {
+    return throttled.sum();
+  }
+
+  /**
+   * Getter for the number of players disconnected because their queue was full
+   * @return Return the number of shed connections
+   */
+  public long getShed()
+  {
+    return shed.sum();
+  }
+
+  /**
+   * Getter for the number of write calls
+   * @return Return the number of writes to the sockets
+   */
+  public long getWriteCalls()
+  {
+    return writeCalls.sum();
+  }
+
+  /**
+   * Getter for the number of answers
+   * @return Return the number of answers made, the welcome included
+   */
+  public long getResponses()
+  {
+    return responses.sum();
+  }
+
+  /**
+   * Converts the counters to string
+   * @return String summary of the counters
+   */
+  public String toString()
+  {
+    long answers = getResponses();
+    return "queued=" + getBytesQueued() + " highWaterMark=" + getHighWaterMark() + " throttled=" + getThrottled() + " shed=" + getShed()
+        + " writes=" + getWriteCalls() + " responses=" + answers
+        + String.format(" writesPerResponse=%.3f", answers == 0 ? 0.0 : (double) getWriteCalls() / answers);
+  }
+}
@@ -4,8 +4,12 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import server.controller.*;
 import common.*;
@@ -15,22 +19,87 @@ import common.*;
  * The Player class is responsible for running the whole game for the assinged
  * client and ask the game the inputs from client connection and send the asnwer
  * back to the client. It creates a controller and passes the string comming from
- * client to it.
+ * client to it. Messages are framed as described in <code>common.Frame</code>, a
+ * <code>common.FrameDecoder</code> puts them together again when they are split or
+ * merged by TCP. Clients that still send the old text messages get text answers.
+ * The commands of one player run in order on a <code>server.net.SerialExecutor</code>, so
+ * they never run at the same time on the same controller.
+ * <p>
+ * Received commands are copied as bytes into a small inbox of the player and one task, made
+ * once, runs everything in the inbox. The task reads each command with the
+ * <code>server.controller.CommandParser</code> of its thread into a reused
+ * <code>server.controller.Command</code>, so no strings or tasks are made per command.
+ * Commands that arrive together are answered together, in one buffer and one write.
+ * Every command keeps the time of the read it came with, and the buffer of its answer
+ * counts the latency in the <code>server.net.ServerMetrics</code> when it is written.
+ * Reads, writes and commands are events of the flight recorder, see
+ * <code>server.net.PlayerReadEvent</code>, <code>server.net.PlayerWriteEvent</code> and
+ * <code>server.net.CommandDispatchEvent</code>.
+ * <p>
+ * The game itself is in a <code>server.net.Session</code>. The welcome is followed by the
+ * token of the session in a <code>SESSION</code> frame, and when the connection drops the session is kept for a while so the
+ * client can take it back on a new connection with <code>RESUME</code>.
+ * <p>
+ * With <code>JOIN</code> the player goes into a <code>server.net.Room</code>, and its START,
+ * GUESS and FINISH are played on the game of the room until it sends <code>LEAVE</code> or
+ * disconnects. They are answered by the <code>ROOM</code> broadcast every member gets, only
+ * errors are answered to the player alone. Rooms are only for framed clients. The room is
+ * left with the connection, it is not part of the session.
+ * <p>
+ * Answers wait in a queue until the socket takes them. A write that does not take the whole
+ * message leaves the rest at the head of the queue and the reactor keeps <code>OP_WRITE</code>
+ * until the queue is empty. When more than half of <code>maxQueuedBytes</code> is waiting,
+ * the player is throttled: its commands are not read until the queue drains below a quarter.
+ * A player that still lets the queue grow past <code>maxQueuedBytes</code> is disconnected.
+ * <p>
+ * A player has no socket buffer of its own. Reads borrow a direct buffer from the shared
+ * <code>server.net.BufferPool</code> and give it back right away, only an unfinished frame is
+ * kept by the decoder between reads. Writes hand the whole queue to one gathering write.
+ * <p>
+ * With a coalescing window (<code>coalesceMillis</code>), an answer that finds the queue empty
+ * is held for up to the window, so the answers that follow it go out in the same write. The
+ * answers are written earlier when <code>coalesceBytes</code> are waiting. Only one window is
+ * open at a time, until the reactor closes it answers are written right away.
  @see server.controller.Controller
+ @see server.net.SerialExecutor
+ @see common.FrameDecoder
  */
-public class Player implements Runnable
+public class Player implements FrameDecoder.Handler
 {
   private final int id;
   private final GameServer server;
   private final SocketChannel playerChannel;
+  private SelectionKey key;
 
-  private final ByteBuffer msgFromClient = ByteBuffer.allocateDirect(Constants.MAX_MSG_LENGTH);
-  public final Queue<ByteBuffer> messagesToSend = new ArrayDeque<>();
+  private static final int INBOX_CAPACITY = 256; //first size of the inbox, it grows for bursts of commands
+  private static final byte FRAMED = 0; //kinds of the commands in the inbox
+  private static final byte LEGACY = 1;
+  private static final ThreadLocal<CommandParser> PARSER = ThreadLocal.withInitial(CommandParser::new);
+  private static final ThreadLocal<Command> COMMAND = ThreadLocal.withInitial(Command::new);
 
-  private String receivedString;
+  private final FrameDecoder decoder = new FrameDecoder();
+  private final SerialExecutor commands;
+  private final Runnable processInbox = this::processInbox;
+  private final Object inboxLock = new Object();
+  private ByteBuffer inbox; //received commands as kind, read time, length and bytes, guarded by inboxLock
+  private boolean inboxScheduled; //processInbox is queued or running, guarded by inboxLock
+  private volatile int pendingCommands;
+  private final Queue<PooledBuffer> messagesToSend = new ArrayDeque<>(); //only used by the reactor thread
+  private long queuedBytes; //bytes waiting in messagesToSend, only used by the reactor thread
+  private int headWritten; //bytes of a shared message at the head already written, only used by the reactor thread
+  private boolean throttled; //reading is paused until the queue drains, only used by the reactor thread
+  private long flushDeadline; //when held answers must be written, 0 when nothing is held, only used by the reactor thread
+  private boolean flushScheduled; //the reactor has this player in its list of windows, only used by the reactor thread
+  private long lastActivity; //when the client last sent something, in milliseconds, only used by the reactor thread
+  private long readTime; //System.nanoTime of the current read, only used by the reactor thread
+  Player wheelPrev; //links of server.net.TimingWheel, only used by the reactor thread
+  Player wheelNext;
+  int wheelSlot = -1;
 
-  private Controller controller;
-  private Boolean isConnected;
+  volatile Session session; //only switched under the lock of server.net.SessionStore
+  private final AtomicReference<Room> room = new AtomicReference<>(); //null when not in a room
+  private final AtomicBoolean connected = new AtomicBoolean(true); //the reactor and command threads may both disconnect
+  private boolean closeWhenWritten; //the client said goodbye, close once the queue is written, only used by the reactor thread
 
 
 
@@ -39,106 +108,672 @@ public class Player implements Runnable
     return id;
   }
 
+  /**
+   * Tells if the connection is still open
+   * @return false once the player disconnected
+   */
+  boolean isConnected()
+  {
+    return connected.get();
+  }
+
+  /**
+   * Getter for the number of received commands of this player that did not run yet
+   * @return Return the number of commands in the inbox
+   */
+  public int getPendingCommands()
+  {
+    return pendingCommands;
+  }
+
+  /**
+   * Getter for the last time the client sent something
+   * @return Return the time in milliseconds of <code>System.nanoTime</code>
+   */
+  long getLastActivity()
+  {
+    return lastActivity;
+  }
+
+  SelectionKey getKey()
+  {
+    return key;
+  }
+
+  void setKey(SelectionKey key)
+  {
+    this.key = key;
+  }
+
   Player(GameServer server, SocketChannel playerSocket, int myId)
   {
       this.server = server;
       this.playerChannel = playerSocket;
-      isConnected = true;
+      this.commands = new SerialExecutor(server.getCommandExecutor());
       id = myId;
+      lastActivity = System.nanoTime() / 1000000;
 
-      try
+      server.getSessions().open(new Controller(server.getDictionary(), server.getLeaderboard()), this);
+      //the client has not said anything yet, the welcome is text so old clients can read it too,
+      //the token is a frame, its 0 byte ends the text even when both come in one read
+      server.sendMessage(Controller.welcome(),this.id);
+      server.sendMessage(Frame.encode(MsgType.SESSION, session.getToken()),this.id);
+      server.getOutboundCounters().response();
+      System.out.println("A new player connected: " + id);
+
+  }
+
+
+  /**
+   * Called by the decoder for every complete frame, the command runs on the thread pool
+   * after the earlier commands of this player.
+   */
+  @Override
+  public void onFrame(ByteBuffer frame) throws IOException
+  {
+      addToInbox(FRAMED, frame);
+  }
+
+  /**
+   * Called by the decoder for every old text message, the command runs on the thread pool
+   * after the earlier commands of this player.
+   */
+  @Override
+  public void onLegacy(ByteBuffer text) throws IOException
+  {
+      addToInbox(LEGACY, text);
+  }
+
+  /**
+   * Copies a command into the inbox and schedules the inbox if it is not already.
+   * @throws IOException if the player sends commands much faster than they run.
+   */
+  private void addToInbox(byte kind, ByteBuffer msg) throws IOException
+  {
+      boolean schedule;
+      synchronized (inboxLock)
       {
-          controller = new Controller(GameServer.WORDS_FILE_PATH);
-          server.sendMessage(controller.getResult(),this.id);
-          System.out.println("A new player connected: " + id);
+          int needed = 13 + msg.remaining();
+          if (inbox == null)
+          {
+              inbox = ByteBuffer.allocate(INBOX_CAPACITY);
+          }
+          if (inbox.remaining() < needed)
+          {
+              int capacity = inbox.capacity();
+              while (capacity - inbox.position() < needed)
+              {
+                  capacity *= 2;
+              }
+              if (capacity > server.getConfig().getMaxQueuedBytes())
+              {
+                  throw new IOException("Player sends commands faster than they run: " + this.id);
+              }
+              inbox = ByteBuffer.allocate(capacity).put(inbox.flip());
+          }
+          inbox.put(kind).putLong(readTime).putInt(msg.remaining());
+          inbox.put(inbox.position(), msg, msg.position(), msg.remaining());
+          inbox.position(inbox.position() + msg.remaining());
+          pendingCommands++;
+          server.getMetrics().commandQueued(pendingCommands);
+
+          schedule = !inboxScheduled;
+          inboxScheduled = true;
       }
-      catch (Exception ex)
+      if (schedule)
       {
-          System.err.println("Hangman words file initialization failure.");
+          commands.execute(processInbox);
       }
-
   }
 
+  /**
+   * Runs the commands of the inbox one by one until it is empty. A command is read under the
+   * lock and played outside of it, so the reactor can add more meanwhile. The answers of all
+   * commands run in one go are written into one batch, which is queued as a single message
+   * when the inbox is empty, so pipelined commands are answered with one write.
+   */
+  private void processInbox()
+  {
+      CommandParser parser = PARSER.get();
+      Command command = COMMAND.get();
+      PooledBuffer batch = null;
+      while (true)
+      {
+          long commandRead;
+          int pending;
+          synchronized (inboxLock)
+          {
+              if (inbox.position() == 0)
+              {
+                  //still under the lock, so the next drain cannot answer before this batch
+                  flush(batch);
+                  inboxScheduled = false;
+                  if (inbox.capacity() > INBOX_CAPACITY)
+                  {
+                      inbox = null; //a burst is over, do not keep its memory
+                  }
+                  return;
+              }
+              inbox.flip();
+              byte kind = inbox.get();
+              commandRead = inbox.getLong();
+              int end = inbox.getInt() + inbox.position();
+              int limit = inbox.limit();
+              inbox.limit(end);
+              if (kind == LEGACY)
+              {
+                  parser.parseLegacy(inbox, command);
+              }
+              else
+              {
+                  parser.parseFrame(inbox, command);
+              }
+              inbox.limit(limit).position(end);
+              inbox.compact();
+              pending = --pendingCommands;
+          }
+          server.getMetrics().commandDequeued();
+          CommandDispatchEvent event = new CommandDispatchEvent();
+          event.begin();
+          long started = event.isEnabled() ? System.nanoTime() : 0;
+          batch = handle(command, commandRead, batch);
+          if (event.shouldCommit())
+          {
+              event.player = id;
+              event.command = String.valueOf(command.getType());
+              event.legacy = command.isLegacy();
+              event.queueWait = started - commandRead;
+              event.pending = pending;
+              event.commit();
+          }
+      }
+  }
 
-  @Override
-  public void run()
+  /**
+   * Runs one command and adds its answer to the batch.
+   * @param command The command to run.
+   * @param commandRead When the command was read, in <code>System.nanoTime</code> units.
+   * @param batch The answers so far, may be null.
+   * @return The batch to add the next answers to, may be null.
+   */
+  private PooledBuffer handle(Command command, long commandRead, PooledBuffer batch)
   {
+      MsgType type = command.getType() != null ? command.getType() : MsgType.ERROR;
+      server.getMetrics().command(type);
       try
       {
-        String inp = this.receivedString;
-        if(inp.equals("DISCONNECT"))
+        if(type == MsgType.DISCONNECT)
         {
-          disconnect();
-          return;
+          //the answers before the goodbye are still written, then the reactor closes the socket
+          flush(batch);
+          batch = null; //queued or released, the catch below must not hand it back
+          server.getSessions().close(session);
+          server.closeAfterWriting(this.id);
+          return null;
+        }
+        boolean resumed = command.getType() == MsgType.RESUME && resume(command.getArgument());
+
+        //the report locks the session store, which locks sessions, so it is made before the session lock
+        String report = type == MsgType.STATS ? server.statsReport() : null;
+        Session current = session;
+        synchronized (current)
+        {
+          Controller controller = current.getController();
+          if(type == MsgType.STATS)
+            controller.answer(MsgType.STATS, report);
+          else if(type == MsgType.LEAVE)
+          {
+            if(leaveRoom())
+              controller.showGame(); //back to the own game
+            else
+              controller.reject("You are not in a room.");
+          }
+          else if(type == MsgType.JOIN || (room.get() != null && isRoomCommand(type)))
+          {
+            //the broadcast must not overtake the answers before it
+            flush(batch);
+            batch = null;
+            String error = playInRoom(command, type);
+            if(error == null)
+              return null;
+            controller.reject(error);
+          }
+          else if(type != MsgType.RESUME)
+            controller.askTheGame(command);
+          else if(resumed)
+            controller.showGame();
+          else
+            controller.reject("Unknown or expired session.");
+          server.getOutboundCounters().response();
+
+          //the answer is encoded straight into a pooled buffer, only a long error needs more room
+          if(batch == null)
+            batch = borrowBatch();
+          if(controller.writeResult(batch.buffer(), command.isLegacy()))
+          {
+            batch.answered(type, commandRead);
+            return batch;
+          }
+
+          flush(batch);
+          batch = null; //queued, not ours anymore if the next borrow fails
+          batch = borrowBatch();
+          if(controller.writeResult(batch.buffer(), command.isLegacy()))
+          {
+            batch.answered(type, commandRead);
+            return batch;
+          }
+
+          batch.release();
+          batch = null;
+          PooledBuffer answer = PooledBuffer.of(command.isLegacy()
+              ? Frame.encodeLegacy(controller.getResultType(), controller.getResultPayload())
+              : Frame.encode(controller.getResultType(), controller.getResultPayload()));
+          answer.answered(type, commandRead);
+          server.sendMessage(answer,this.id);
+          return null;
         }
-        controller.askTheGame(inp);
-        server.sendMessage(controller.getResult(),this.id);
       }
       catch (Exception ex)
       {
+        //batch is null once it was flushed or released, so it is only handed back while this player owns it
         System.err.println("Player's socket is not working anymore: " + this.id);
+        return batch;
+      }
+  }
+
+  private static boolean isRoomCommand(MsgType type)
+  {
+      return type == MsgType.START || type == MsgType.GUESS || type == MsgType.FINISH;
+  }
+
+  /**
+   * Runs a JOIN, or a game command in the room. What the room broadcasts is the answer.
+   * @param command The command.
+   * @param type The type of the command.
+   * @return The error message for the player, or null if the room answered.
+   */
+  private String playInRoom(Command command, MsgType type)
+  {
+      if(type != MsgType.JOIN)
+        return room.get().play(command, this.id);
+
+      if(command.isLegacy())
+        return "Rooms are only for framed messages.";
+      CharSequence name = command.getArgument();
+      if(!RoomRegistry.isValidName(name))
+        return "A room name has 1 to " + RoomRegistry.MAX_NAME_LENGTH + " letters, digits, - or _.";
+      leaveRoom();
+      room.set(server.getRooms().join(name.toString(), this.id));
+      if(!connected.get())
+        leaveRoom(); //disconnect() ran meanwhile and did not see the room
+      return null;
+  }
+
+  /**
+   * Leaves the room, if the player is in one.
+   * @return false if it was not in a room.
+   */
+  private boolean leaveRoom()
+  {
+      Room left = room.getAndSet(null);
+      if(left == null)
+        return false;
+      server.getRooms().leave(left, this.id);
+      return true;
+  }
+
+  /**
+   * Takes over the session of the token, the session this connection had until now is
+   * forgotten.
+   * @param token The token of the session, may be null.
+   * @return false if there is no such session.
+   */
+  private boolean resume(CharSequence token)
+  {
+      if(token == null)
+        return false;
+      if(!server.getSessions().resume(token.toString(), this))
+        return false;
+      System.out.println("Player " + this.id + " resumed a session.");
+      return true;
+  }
+
+  /**
+   * Borrows a buffer for answers. When more commands are waiting, a big buffer of the read
+   * pool is taken so the whole batch fits in it, otherwise a small response buffer.
+   */
+  private PooledBuffer borrowBatch()
+  {
+      return pendingCommands > 0 ? server.getBufferPool().borrow() : server.getResponsePool().borrow();
+  }
+
+  /**
+   * Queues the answers of the batch, or gives the buffer back if nothing was written in it.
+   */
+  private void flush(PooledBuffer batch)
+  {
+      if(batch == null)
+        return;
+      if(batch.buffer().position() == 0)
+      {
+        batch.release();
         return;
       }
+      batch.buffer().flip();
+      server.sendMessage(batch,this.id);
   }
 
 
-  void sendMessage(ByteBuffer msg) throws Exception
+  /**
+   * Writes the head of the queue with one gathering write, as much of it as the socket takes.
+   * The write moves the positions of the queued buffers, the ones it took completely are
+   * then released.
+   * @param gather An array of the reactor to put the queued buffers in, emptied again after.
+   * @return true if the socket took everything that was given, false if it is full.
+   * @throws IOException in case of socket problems.
+   */
+  private boolean sendQueued(ByteBuffer[] gather) throws IOException
+  {
+        int count = gather(messagesToSend, gather, headWritten);
+        long given = 0;
+        for (int i = 0; i < count; i++)
+        {
+            given += gather[i].remaining();
+        }
+        PlayerWriteEvent event = new PlayerWriteEvent();
+        event.begin();
+        long written;
+        int released;
+        try
+        {
+            written = playerChannel.write(gather, 0, count);
+            released = releaseWritten(messagesToSend, count, server.getMetrics());
+            headWritten = headWritten(messagesToSend, released, count);
+        }
+        finally
+        {
+            Arrays.fill(gather, 0, count, null);
+        }
+
+        queuedBytes -= written;
+        if (event.shouldCommit())
+        {
+            event.player = id;
+            event.buffers = count;
+            event.bytes = written;
+            event.queued = queuedBytes;
+            event.commit();
+        }
+        server.getOutboundCounters().written(written);
+        server.getOutboundCounters().writeCall();
+        server.getMetrics().written(written);
+        return written == given;
+  }
+
+  /**
+   * Puts the head of a queue into the array of a gathering write. A shared message is
+   * positioned for this player: the head where its last write stopped, the others at 0.
+   * @param queue The queued messages, oldest first.
+   * @param gather The array to fill.
+   * @param headWritten Bytes of the head already written, if it is shared.
+   * @return The number of buffers put in the array.
+   */
+  static int gather(Queue<PooledBuffer> queue, ByteBuffer[] gather, int headWritten)
+  {
+        int count = 0;
+        for (PooledBuffer queued : queue)
+        {
+            if (count == gather.length)
+            {
+                break;
+            }
+            if (queued.isShared())
+            {
+                queued.buffer().position(count == 0 ? headWritten : 0);
+            }
+            gather[count++] = queued.buffer();
+        }
+        return count;
+  }
+
+  /**
+   * Releases the messages at the head of a queue that a gathering write took completely, and
+   * counts the latency of their answers. Only the buffers of the write are looked at, a
+   * shared message further back may have the position of another player.
+   * @param queue The queued messages, oldest first.
+   * @param count The number of buffers given to the write.
+   * @param metrics The counters of the latency.
+   * @return The number of released messages.
+   */
+  static int releaseWritten(Queue<PooledBuffer> queue, int count, ServerMetrics metrics)
   {
-        playerChannel.write(msg);
-        if (msg.hasRemaining())
+        long now = 0;
+        int released = 0;
+        PooledBuffer msg;
+        while (released < count && (msg = queue.peek()) != null && !msg.buffer().hasRemaining())
         {
-            throw new Exception("Could not send message");
+            if (msg.hasAnswers())
+            {
+                now = now != 0 ? now : System.nanoTime();
+                msg.written(metrics, now);
+            }
+            queue.remove().release();
+            released++;
         }
+        return released;
   }
 
+  /**
+   * Tells how much of the new head of the queue is written, after <code>releaseWritten</code>.
+   * @param queue The queued messages, oldest first.
+   * @param released The messages released after the write.
+   * @param count The number of buffers given to the write.
+   * @return The written bytes of the head if it is shared and was part of the write, else 0.
+   */
+  static int headWritten(Queue<PooledBuffer> queue, int released, int count)
+  {
+        PooledBuffer head = queue.peek();
+        return released < count && head != null && head.isShared() ? head.buffer().position() : 0;
+  }
 
   void recieveMessage() throws IOException
   {
-      msgFromClient.clear();
-      int numOfReadBytes;
-      numOfReadBytes = playerChannel.read(msgFromClient);
-      if (numOfReadBytes == -1)
+      PlayerReadEvent event = new PlayerReadEvent();
+      event.begin();
+      PooledBuffer lease = server.getBufferPool().borrow();
+      try
       {
-          throw new IOException("Player has closed connection: " + this.id);
-      }
-
-      //extractMessageFromBuffer
-      msgFromClient.flip();
-      byte[] bytes = new byte[msgFromClient.remaining()];
-      msgFromClient.get(bytes);
-      this.receivedString = new String(bytes);
+          ByteBuffer msgFromClient = lease.buffer();
+          int numOfReadBytes;
+          numOfReadBytes = playerChannel.read(msgFromClient);
+          if (numOfReadBytes == -1)
+          {
+              throw new IOException("Player has closed connection: " + this.id);
+          }
+          readTime = System.nanoTime();
+          lastActivity = readTime / 1000000;
+          server.getMetrics().read(numOfReadBytes);
 
-      ForkJoinPool.commonPool().execute(this);
+          //extractMessagesFromBuffer, the decoder copies what it needs to keep
+          msgFromClient.flip();
+          decoder.decode(msgFromClient, this);
+          if (event.shouldCommit())
+          {
+              event.player = id;
+              event.bytes = numOfReadBytes;
+              event.commit();
+          }
+      }
+      finally
+      {
+          lease.release();
+      }
   }
 
 
   public void disconnect() throws IOException
   {
+      if(!connected.compareAndSet(true, false))
+        return;
+      server.getMetrics().disconnected();
+      Room left = room.getAndSet(null);
+      if(left != null)
+      {
+        //the room lock is taken on the command threads, never on the reactor
+        server.getCommandExecutor().execute(() -> server.getRooms().leave(left, this.id));
+      }
+      server.getSessions().drop(this);
       playerChannel.close();
-      isConnected = false;
+      server.removePlayerById(this.id);
       System.out.println("Player disconnected: " + this.id);
   }
 
 
-  public void queueMsgToSend(ByteBuffer msg)
+  /**
+   * Adds a message to the queue of this player. Only the reactor thread calls this, so
+   * there is no lock.
+   * @param msg The encoded message, the queue owns it from now on.
+   * @return false if the queue is over <code>maxQueuedBytes</code> and the player should be shed.
+   */
+  boolean queueMsgToSend(PooledBuffer msg)
+  {
+      if (closeWhenWritten)
+      {
+          msg.release(); //nobody listens after the goodbye
+          return true;
+      }
+      ServerConfig config = server.getConfig();
+      if (messagesToSend.isEmpty() && config.getCoalesceMillis() > 0 && !flushScheduled)
+      {
+          flushDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getCoalesceMillis());
+          flushScheduled = true;
+      }
+      int length = msg.remainingFor(0);
+      if (messagesToSend.isEmpty())
+      {
+          headWritten = 0;
+      }
+      messagesToSend.add(msg);
+      queuedBytes += length;
+      server.getOutboundCounters().queued(length, queuedBytes);
+      if (flushDeadline != 0 && queuedBytes >= config.getCoalesceBytes())
+      {
+          flushDeadline = 0; //enough to fill a packet, no need to wait
+      }
+
+      long limit = server.getConfig().getMaxQueuedBytes();
+      if (queuedBytes > limit)
+      {
+          server.getOutboundCounters().shed();
+          return false;
+      }
+      if (!throttled && queuedBytes > limit / 2)
+      {
+          throttled = true;
+          server.getOutboundCounters().throttled();
+      }
+      updateInterest();
+      return true;
+  }
+
+  /**
+   * Closes the player once everything queued so far is written, held answers are written
+   * right away. Only the reactor thread calls this.
+   */
+  void closeWhenWritten()
+  {
+      closeWhenWritten = true;
+      flushDeadline = 0;
+      updateInterest();
+  }
+
+  /**
+   * Tells if the player said goodbye and all its answers are written, so it can be closed.
+   * @return true if the reactor should close it now
+   */
+  boolean isWrittenAndClosing()
+  {
+      return closeWhenWritten && messagesToSend.isEmpty();
+  }
+
+  /**
+   * Getter for the end of the coalescing window
+   * @return Return the deadline in <code>System.nanoTime</code> units, 0 if nothing is held
+   */
+  long getFlushDeadline()
+  {
+      return flushDeadline;
+  }
+
+  /**
+   * Tells if the reactor has to keep this player in its list of coalescing windows.
+   * @return true while a window is open
+   */
+  boolean isFlushScheduled()
+  {
+      return flushScheduled;
+  }
+
+  /**
+   * Closes the coalescing window and writes the held answers right away. Only the reactor
+   * thread calls this.
+   * @param gather An array of the reactor for the gathering write.
+   * @throws IOException in case of socket problems.
+   */
+  void flushHeld(ByteBuffer[] gather) throws IOException
   {
-      synchronized (messagesToSend)
+      flushScheduled = false;
+      if (flushDeadline != 0)
       {
-          messagesToSend.add(msg.duplicate());
+          flushDeadline = 0;
+          sendAll(gather);
       }
   }
 
-  public void sendAll() throws Exception
+  /**
+   * Writes the queued messages until the socket does not take more. Whatever is not written
+   * stays in the queue for the next <code>OP_WRITE</code>. Only the reactor thread calls this.
+   * @param gather An array of the reactor for the gathering write.
+   * @throws IOException in case of socket problems.
+   */
+  void sendAll(ByteBuffer[] gather) throws IOException
   {
-      ByteBuffer msg = null;
+      while (!messagesToSend.isEmpty() && this.sendQueued(gather));
 
-      synchronized (messagesToSend)
+      if (throttled && queuedBytes <= server.getConfig().getMaxQueuedBytes() / 4)
       {
-          while ((msg = messagesToSend.peek()) != null)
-          {
-              this.sendMessage(msg);
-              messagesToSend.remove();
-          }
+          throttled = false;
+      }
+      updateInterest();
+  }
+
+  /**
+   * Sets the interest of the key from the state of the queue: reading unless throttled,
+   * writing while something is queued and not held for coalescing.
+   */
+  void updateInterest()
+  {
+      int ops = (throttled ? 0 : SelectionKey.OP_READ) | (messagesToSend.isEmpty() || flushDeadline != 0 ? 0 : SelectionKey.OP_WRITE);
+      if (key != null && key.isValid() && key.interestOps() != ops)
+      {
+          key.interestOps(ops);
+      }
+  }
+
+  /**
+   * Forgets the queued messages, when the player is removed. Only the reactor thread calls this.
+   */
+  void clearQueue()
+  {
+      server.getOutboundCounters().written(queuedBytes);
+      queuedBytes = 0;
+      headWritten = 0;
+      flushDeadline = 0;
+      PooledBuffer msg;
+      while ((msg = messagesToSend.poll()) != null)
+      {
+          msg.release();
       }
   }
 }
@@ -0,0 +1,23 @@
+package server.net;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of one read of a player, the read itself and the decoding of the
+ * commands in it.
+ * @see server.net.Player
+ * @see server.net.SelectLoopEvent
+ */
+@Name("hangman.PlayerRead")
+@Label("Player Read")
+@Category({"Hangman", "Network"})
+@StackTrace(false)
+class PlayerReadEvent extends Event
+{
+  @Label("Player")
+  int player;
+
+  @Label("Bytes")
+  @DataAmount
+  int bytes;
+}
@@ -0,0 +1,118 @@
+package server.net;
+
+/**
+ * Maps player ids to their <code>server.net.Player</code> objects, so the selector thread finds
+ * the player of a message in constant time instead of looking at every key of the selector.
+ * It is an open addressing hash table on primitive int keys, with linear probing and no
+ * objects created per entry. It is not thread safe, only the selector thread that owns it
+ * should use it.
+ * @see server.net.GameServer
+ */
+class PlayerRegistry
+{
+  private static final int EMPTY = 0; //ids start from 1, so 0 marks a free slot
+
+  private int[] ids = new int[1024];
+  private Player[] players = new Player[1024];
+  private int size;
+
+  /**
+   * Adds a player, or replaces the player with the same id.
+   * @param player The player to add.
+   */
+  void put(Player player)
+  {
+    if((size + 1) * 2 > ids.length)
+      resize(ids.length * 2);
+
+    int slot = slotOf(player.getId());
+    if(ids[slot] == EMPTY)
+      size++;
+    ids[slot] = player.getId();
+    players[slot] = player;
+  }
+
+  /**
+   * Finds a player by its id.
+   * @param id The id of the player.
+   * @return The player or null if there is no player with the id.
+   */
+  Player get(int id)
+  {
+    return players[slotOf(id)];
+  }
+
+  /**
+   * Removes a player by its id.
+   * @param id The id of the player.
+   * @return The removed player or null if there was no player with the id.
+   */
+  Player remove(int id)
+  {
+    int slot = slotOf(id);
+    Player removed = players[slot];
+    if(removed == null)
+      return null;
+
+    //shift the following entries back, so no probe chain is broken
+    int mask = ids.length - 1;
+    int free = slot;
+    int next = (free + 1) & mask;
+    while(ids[next] != EMPTY)
+    {
+      int home = hash(ids[next]) & mask;
+      if(((next - home) & mask) >= ((next - free) & mask))
+      {
+        ids[free] = ids[next];
+        players[free] = players[next];
+        free = next;
+      }
+      next = (next + 1) & mask;
+    }
+    ids[free] = EMPTY;
+    players[free] = null;
+    size--;
+    return removed;
+  }
+
+  /**
+   * Getter for the number of players
+   * @return Return the number of registered players
+   */
+  int size()
+  {
+    return size;
+  }
+
+  private int slotOf(int id)
+  {
+    int mask = ids.length - 1;
+    int slot = hash(id) & mask;
+    while(ids[slot] != EMPTY && ids[slot] != id)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  private static int hash(int id)
+  {
+    int h = id * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private void resize(int capacity)
+  {
+    int[] oldIds = ids;
+    Player[] oldPlayers = players;
+    ids = new int[capacity];
+    players = new Player[capacity];
+    for(int i=0;i<oldIds.length;i++)
+    {
+      if(oldIds[i] != EMPTY)
+      {
+        int slot = slotOf(oldIds[i]);
+        ids[slot] = oldIds[i];
+        players[slot] = oldPlayers[i];
+      }
+    }
+  }
+}
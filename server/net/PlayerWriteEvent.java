@@ -0,0 +1,30 @@
+package server.net;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of one gathering write to a player.
+ * @see server.net.Player
+ * @see server.net.SelectLoopEvent
+ */
+@Name("hangman.PlayerWrite")
+@Label("Player Write")
+@Category({"Hangman", "Network"})
+@StackTrace(false)
+class PlayerWriteEvent extends Event
+{
+  @Label("Player")
+  int player;
+
+  @Label("Buffers")
+  @Description("Queued buffers handed to the write")
+  int buffers;
+
+  @Label("Bytes")
+  @DataAmount
+  long bytes;
+
+  @Label("Still Queued")
+  @DataAmount
+  long queued;
+}
@@ -0,0 +1,145 @@
+package server.net;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import common.MsgType;
+
+/**
+ * A buffer borrowed from a <code>server.net.BufferPool</code>. The same object is handed out
+ * every time its slot is borrowed, so borrowing creates nothing. Messages waiting to be
+ * written are queued as pooled buffers too, a buffer that does not come from a pool is
+ * wrapped with <code>of</code> and its release does nothing.
+ * <p>
+ * A shared buffer is one message queued for many players of the same reactor, like a
+ * broadcast of a room. Its position belongs to nobody, every player keeps how much of it is
+ * written and sets the position right before its own write, on the reactor thread.
+ * <p>
+ * A buffer of answers also remembers the type and the read time of every command it
+ * answers, so the latency can be counted when the last byte is written. The arrays for this
+ * are made once per slot and reused.
+ * @see server.net.BufferPool
+ */
+final class PooledBuffer
+{
+  private final BufferPool pool; // null for the heap buffers given out when the pool is empty
+  private final ByteBuffer buffer;
+  private final int slot;
+  private final boolean shared; // queued for many players, see isShared
+  private MsgType[] answeredTypes; // commands answered in the buffer, null until the first one
+  private long[] readTimes; // System.nanoTime of the read of each command
+  private int answers;
+
+  PooledBuffer(BufferPool pool, ByteBuffer buffer, int slot)
+  {
+    this(pool, buffer, slot, false);
+  }
+
+  private PooledBuffer(BufferPool pool, ByteBuffer buffer, int slot, boolean shared)
+  {
+    this.pool = pool;
+    this.buffer = buffer;
+    this.slot = shared ? -1 : slot;
+    this.shared = shared;
+  }
+
+  /**
+   * Wraps a buffer that does not belong to a pool.
+   * @param buffer The buffer.
+   * @return A lease whose release does nothing.
+   */
+  static PooledBuffer of(ByteBuffer buffer)
+  {
+    return new PooledBuffer(null, buffer, -1);
+  }
+
+  /**
+   * Wraps one message for many players of one reactor, only that reactor may use it.
+   * @param message The message between position and limit, it is not changed.
+   * @return A shared lease over a view of the message, whose release does nothing.
+   */
+  static PooledBuffer shared(ByteBuffer message)
+  {
+    return new PooledBuffer(null, message.slice(), -1, true);
+  }
+
+  /**
+   * Tells whether the buffer is queued for many players, its position is then set by each
+   * of them before a write.
+   * @return true for a shared message
+   */
+  boolean isShared()
+  {
+    return shared;
+  }
+
+  /**
+   * Getter for the bytes of the message a player still has to write
+   * @param written Bytes of a shared message the player already wrote, ignored for the others.
+   * @return Return the remaining bytes
+   */
+  int remainingFor(int written)
+  {
+    return shared ? buffer.limit() - written : buffer.remaining();
+  }
+
+  /**
+   * Getter for the buffer itself
+   * @return Return the borrowed buffer
+   */
+  ByteBuffer buffer()
+  {
+    return buffer;
+  }
+
+  /**
+   * Remembers that the buffer holds the answer of a command.
+   * @param type The type of the command.
+   * @param readTime When the command was read, in <code>System.nanoTime</code> units.
+   */
+  void answered(MsgType type, long readTime)
+  {
+    if (answeredTypes == null)
+    {
+      answeredTypes = new MsgType[4];
+      readTimes = new long[4];
+    }
+    else if (answers == answeredTypes.length)
+    {
+      answeredTypes = Arrays.copyOf(answeredTypes, answers * 2);
+      readTimes = Arrays.copyOf(readTimes, answers * 2);
+    }
+    answeredTypes[answers] = type;
+    readTimes[answers++] = readTime;
+  }
+
+  /**
+   * Counts the latency of every answer in the buffer, when it is written completely.
+   * @param metrics The counters to count in.
+   * @param now The time of the write, in <code>System.nanoTime</code> units.
+   */
+  void written(ServerMetrics metrics, long now)
+  {
+    for (int i = 0; i < answers; i++)
+      metrics.answered(answeredTypes[i], now - readTimes[i]);
+    answers = 0;
+  }
+
+  /**
+   * Tells whether the buffer holds answers whose latency is not counted yet.
+   * @return true if there are answers
+   */
+  boolean hasAnswers()
+  {
+    return answers > 0;
+  }
+
+  /**
+   * Gives the buffer back to the pool. The buffer must not be used after this.
+   */
+  void release()
+  {
+    answers = 0;
+    if (pool != null)
+      pool.release(slot);
+  }
+}
@@ -0,0 +1,510 @@
+package server.net;
+
+import java.io.*;
+import java.util.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * A Reactor is one I/O thread of the server. It has its own selector, its own players and its
+ * own queue of messages to send. The acceptor of <code>server.net.GameServer</code> hands new
+ * connections to it, and from then on every read and write of those players happens on this
+ * thread only. A read, write or registration that fails closes only that player, the
+ * reactor goes on with the others.
+ * <p>
+ * Other threads give work to the reactor through lock-free queues. The selector is woken up
+ * only by the first message after the reactor started draining, so a burst of responses
+ * from the game threads costs one wakeup and no thread ever waits for a lock.
+ * <p>
+ * Players that hold answers in a coalescing window are kept in a list ordered by deadline,
+ * the window is the same for everybody so new ones always go to the end. The selector waits
+ * at most until the first deadline.
+ * <p>
+ * Idle players are found by a <code>server.net.TimingWheel</code> that turns with the select
+ * loop, the selector also wakes up for its next tick.
+ * <p>
+ * A broadcast of a <code>server.net.Room</code> is one item of the queue for all its members
+ * on this reactor. The reactor queues the same shared <code>server.net.PooledBuffer</code> for
+ * each of them, every member only keeps how much of it is written. Nothing is encoded,
+ * allocated or queued across threads per member.
+ * <p>
+ * Every turn of the loop is a <code>server.net.SelectLoopEvent</code> of the flight recorder.
+ * @see server.net.GameServer
+ * @see server.net.Player
+ */
+class Reactor implements Runnable
+{
+  private static final int LINGER_TIME = 5000; //socket linger time
+  private static final int MAX_GATHER = 64; //most queued buffers handed to one write
+
+  private final GameServer server;
+  private final int index;
+  private final Queue<MessageToSend> messagesToSend = new ConcurrentLinkedQueue<>();
+  private final Queue<Broadcast> broadcasts = new ConcurrentLinkedQueue<>();
+  private final Queue<Integer> playersToRemove = new ConcurrentLinkedQueue<>();
+  private final Queue<NewConnection> newConnections = new ConcurrentLinkedQueue<>();
+  private final PlayerRegistry players = new PlayerRegistry(); //only used by the reactor thread
+  private final Selector selector;
+  private final AtomicBoolean wakeupPending = new AtomicBoolean(); //a wakeup is on its way, no need for another
+  private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER]; //reused by every gathering write of this thread
+  private final Queue<Player> heldPlayers = new ArrayDeque<>(); //open coalescing windows by deadline, only used by the reactor thread
+  private final TimingWheel idlePlayers; //null when idle players are kept, only used by the reactor thread
+  private final Consumer<Player> reaper = this::reap;
+  private int reapedNow; //players reaped by the current turn of the wheel
+
+  /**
+   * Creates the reactor and its selector, <code>start</code> should be called to run it.
+   * @param server The server the players belong to.
+   * @param index Number of the reactor, used for the thread name.
+   * @throws IOException in case the selector cannot be opened.
+   */
+  Reactor(GameServer server, int index) throws IOException
+  {
+    this.server = server;
+    this.index = index;
+    this.selector = Selector.open();
+    int timeout = server.getConfig().getIdleTimeoutMillis();
+    this.idlePlayers = timeout > 0 ? new TimingWheel(timeout, System.nanoTime() / 1000000) : null;
+  }
+
+  /**
+   * Starts the reactor thread.
+   */
+  void start()
+  {
+    new Thread(this, "reactor-" + index).start();
+  }
+
+  /**
+   * Hands a new connection to this reactor. It can be called from any thread.
+   * @param channel The accepted connection.
+   * @param id The id of the new player.
+   */
+  void register(SocketChannel channel, int id)
+  {
+      newConnections.add(new NewConnection(channel, id));
+      wakeup();
+  }
+
+  /**
+   * Queues a message for one of the players of this reactor. It can be called from any thread.
+   * @param msg The encoded message, released after it is written or dropped.
+   * @param id The id of the player.
+   */
+  void sendMessage(PooledBuffer msg,int id)
+  {
+      messagesToSend.add(new MessageToSend(msg,id));
+      wakeup();
+  }
+
+  /**
+   * Closes a player of this reactor once the messages queued before this call are written.
+   * It can be called from any thread, it goes through the same queue as the messages.
+   * @param id The id of the player.
+   */
+  void closeAfterWriting(int id)
+  {
+      messagesToSend.add(new MessageToSend(null,id));
+      wakeup();
+  }
+
+  /**
+   * Queues one message for many players of this reactor. It can be called from any thread.
+   * @param msg The encoded message, read only, one view of it is queued for all the players.
+   * @param ids The ids of the players, the array is not changed anymore.
+   */
+  void broadcast(ByteBuffer msg, int[] ids)
+  {
+      broadcasts.add(new Broadcast(PooledBuffer.shared(msg), ids));
+      wakeup();
+  }
+
+  /**
+   * Forgets the player with the id and cancels its key. It can be called from any thread,
+   * the reactor thread does the work with a registry lookup.
+   * @param id The id of the player.
+   */
+  void removePlayerById(int id)
+  {
+      playersToRemove.add(id);
+      wakeup();
+  }
+
+  /**
+   * Wakes the selector up, unless a wakeup is already pending since the last drain.
+   */
+  private void wakeup()
+  {
+      if (!wakeupPending.get() && wakeupPending.compareAndSet(false, true))
+      {
+          selector.wakeup();
+      }
+  }
+
+  @Override
+  public void run()
+  {
+      try
+      {
+          while (true)
+          {
+              SelectLoopEvent turn = new SelectLoopEvent();
+              turn.begin();
+              int drained = 0;
+              int removed = 0;
+
+              //anything queued after this point wakes the selector again
+              wakeupPending.set(false);
+
+              registerNewConnections();
+
+              MessageToSend msgToSend;
+              while ((msgToSend = messagesToSend.poll()) != null)
+              {
+                drained++;
+                Player player = players.get(msgToSend.getId());
+                if (player == null || !player.getKey().isValid())
+                {
+                    if (msgToSend.getMessage() != null)
+                    {
+                        msgToSend.getMessage().release();
+                    }
+                    continue;
+                }
+                if (msgToSend.getMessage() == null)
+                {
+                    //the goodbye, the player is closed when its queue is written
+                    player.closeWhenWritten();
+                    if (player.isWrittenAndClosing())
+                    {
+                        removePlayer(player.getKey());
+                    }
+                    continue;
+                }
+                queue(player, msgToSend.getMessage());
+              }
+
+              Broadcast broadcast;
+              while ((broadcast = broadcasts.poll()) != null)
+              {
+                drained++;
+                for (int member : broadcast.ids)
+                {
+                    Player player = players.get(member);
+                    if (player != null && player.getKey().isValid())
+                    {
+                        queue(player, broadcast.message);
+                    }
+                }
+              }
+
+              Integer id;
+              while ((id = playersToRemove.poll()) != null)
+              {
+                  Player player = players.remove(id);
+                  if (player != null)
+                  {
+                      removed++;
+                      forget(player);
+                      player.getKey().cancel();
+                      player.clearQueue();
+                  }
+              }
+
+
+              long wait = flushHeldPlayers();
+              long waitMillis = wait > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait + 999999)) : 0;
+              long tickMillis = reapIdlePlayers();
+              if (tickMillis > 0 && (waitMillis == 0 || tickMillis < waitMillis))
+              {
+                  waitMillis = tickMillis;
+              }
+              long selectStart = turn.isEnabled() ? System.nanoTime() : 0;
+              int keys;
+              if (waitMillis > 0)
+              {
+                  keys = selector.select(waitMillis);
+              }
+              else
+              {
+                  keys = selector.select();
+              }
+              long selectTime = turn.isEnabled() ? System.nanoTime() - selectStart : 0;
+              Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+              while (iterator.hasNext())
+              {
+                  SelectionKey key = iterator.next();
+                  iterator.remove();
+                  if (!key.isValid())
+                  {
+                      continue;
+                  }
+                  if (key.isReadable())
+                  {
+                      //recvFromClient(key)
+                      Player player = (Player) key.attachment();
+                      try
+                      {
+                          player.recieveMessage();
+                      }
+                      catch (IOException | RuntimeException clientHasClosedConnection)
+                      {
+                          //only this player is lost, the others of the reactor go on
+                          removePlayer(key);
+                      }
+                  }
+                  if (key.isValid() && key.isWritable())
+                  {
+                      //sendToClient(key), what the socket does not take stays queued
+                      Player player = (Player) key.attachment();
+                      try
+                      {
+                          player.sendAll(gather);
+                          if (player.isWrittenAndClosing())
+                          {
+                              removePlayer(key);
+                          }
+                      }
+                      catch (IOException | RuntimeException ex)
+                      {
+                          removePlayer(key);
+                      }
+                  }
+              }
+
+              turn.end();
+              if (turn.shouldCommit())
+              {
+                  turn.reactor = index;
+                  turn.selectTime = selectTime;
+                  turn.keys = keys;
+                  turn.drained = drained;
+                  turn.removed = removed;
+                  turn.commit();
+              }
+          }
+      }
+      catch (Exception e)
+      {
+          System.err.println("Server failure in reactor " + index + ", its players are lost: " + e);
+      }
+  }
+
+  /**
+   * Appends a message to the queue of a player and writes it, or sheds the player if it
+   * does not read its answers. Only the reactor thread calls this.
+   * @param player A player of this reactor with a valid key.
+   * @param msg The message, the player owns it from now on.
+   */
+  private void queue(Player player, PooledBuffer msg)
+  {
+      //appendMsgToClientQueue and writeOperationForTheClient
+      boolean scheduled = player.isFlushScheduled();
+      if (!player.queueMsgToSend(msg))
+      {
+          System.err.println("Player is not reading its answers, disconnecting: " + player.getId());
+          removePlayer(player.getKey());
+      }
+      else if (!scheduled && player.isFlushScheduled())
+      {
+          heldPlayers.add(player);
+      }
+  }
+
+  private void registerNewConnections()
+  {
+      NewConnection con;
+      while ((con = newConnections.poll()) != null)
+      {
+          SocketChannel clientChannel = con.channel;
+          Player player = null;
+          try
+          {
+              clientChannel.configureBlocking(false);
+              clientChannel.setOption(StandardSocketOptions.SO_LINGER, LINGER_TIME);
+              clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, server.getConfig().getNoDelay());
+              player = new Player(server, clientChannel, con.id);
+              player.setKey(clientChannel.register(selector, SelectionKey.OP_READ, player));
+              players.put(player);
+              server.getMetrics().connected();
+              if (idlePlayers != null)
+              {
+                  idlePlayers.add(player);
+              }
+          }
+          catch (IOException | RuntimeException ex)
+          {
+              System.err.println("Could not register a new player: " + con.id + ", " + ex);
+              if (player != null && player.getKey() != null)
+              {
+                  removePlayer(player.getKey());
+              }
+              else if (player != null)
+              {
+                  close(player); //its session was opened already
+              }
+              else
+              {
+                  try
+                  {
+                      clientChannel.close();
+                  }
+                  catch (IOException closeFailed)
+                  {
+                      System.err.println("Could not close a new connection: " + con.id);
+                  }
+              }
+          }
+      }
+  }
+
+  /**
+   * Writes the answers of every player whose coalescing window is over.
+   * @return Nanoseconds until the next window is over, 0 if no window is open.
+   */
+  private long flushHeldPlayers()
+  {
+      long now = System.nanoTime();
+      Player player;
+      while ((player = heldPlayers.peek()) != null)
+      {
+          long deadline = player.getFlushDeadline();
+          if (deadline != 0 && deadline - now > 0 && player.getKey().isValid())
+          {
+              return deadline - now;
+          }
+          heldPlayers.remove();
+          if (!player.getKey().isValid())
+          {
+              continue;
+          }
+          try
+          {
+              player.flushHeld(gather);
+          }
+          catch (IOException | RuntimeException ex)
+          {
+              removePlayer(player.getKey());
+          }
+      }
+      return 0;
+  }
+
+  /**
+   * Turns the wheel of idle players and disconnects the ones that sent nothing for the
+   * whole timeout.
+   * @return Milliseconds until the next tick of the wheel, 0 if there is nothing to wait for.
+   */
+  private long reapIdlePlayers()
+  {
+      if (idlePlayers == null)
+      {
+          return 0;
+      }
+      long now = System.nanoTime() / 1000000;
+      reapedNow = 0;
+      idlePlayers.advance(now, reaper);
+      if (reapedNow > 0)
+      {
+          server.reaped(reapedNow);
+          System.out.println("Disconnected " + reapedNow + " idle players in reactor " + index + ".");
+      }
+      return idlePlayers.millisToNextTick(now);
+  }
+
+  private void reap(Player player)
+  {
+      if (!player.getKey().isValid())
+      {
+          return;
+      }
+      reapedNow++;
+      removePlayer(player.getKey());
+  }
+
+  /**
+   * Takes the player out of the reactor's own bookkeeping.
+   */
+  private void forget(Player player)
+  {
+      if (idlePlayers != null)
+      {
+          idlePlayers.remove(player);
+      }
+  }
+
+  /**
+   * Closes the player of the key and forgets it. Only the reactor thread calls this, a
+   * socket that fails to close is only logged, the player is gone anyway.
+   * @param clientKey The key of the player.
+   */
+  private void removePlayer(SelectionKey clientKey)
+  {
+      Player player = (Player) clientKey.attachment();
+      players.remove(player.getId());
+      forget(player);
+      clientKey.cancel();
+      player.clearQueue();
+      close(player);
+  }
+
+  private void close(Player player)
+  {
+      try
+      {
+          player.disconnect();
+      }
+      catch (IOException | RuntimeException ex)
+      {
+          System.err.println("Could not close the connection of player " + player.getId() + ": " + ex);
+      }
+  }
+
+
+  private static class NewConnection
+  {
+    private final SocketChannel channel;
+    private final int id;
+    private NewConnection(SocketChannel c,int i)
+    {
+      channel = c;
+      id = i;
+    }
+  }
+
+  private static class Broadcast
+  {
+    private final PooledBuffer message; //queued as it is for every member
+    private final int[] ids;
+    private Broadcast(PooledBuffer m,int[] i)
+    {
+      message = m;
+      ids = i;
+    }
+  }
+
+  private static class MessageToSend
+  {
+    private int id;
+    private PooledBuffer message;
+    public MessageToSend(PooledBuffer m,int i)
+    {
+      id = i;
+      message = m;
+    }
+    public int getId()
+    {
+      return id;
+    }
+    public PooledBuffer getMessage()
+    {
+      return message;
+    }
+  }
+}
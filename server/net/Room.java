@@ -0,0 +1,146 @@
+package server.net;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import server.controller.*;
+import common.*;
+
+/**
+ * A room where every member guesses the same word. The game is one
+ * <code>server.controller.Controller</code> of the room, so a round is played with the same
+ * rules as alone, only without the leaderboard.
+ * <p>
+ * Every change of the game, and every member that comes or goes, is encoded once into one
+ * read-only <code>ROOM</code> frame. The members are kept by reactor, and each reactor with
+ * members gets the frame and its array of ids as one queued broadcast. The reactor makes one
+ * view of the bytes and queues that same view for every member. A room of thousands of players
+ * costs one encoding and one queue item per reactor, not one message per member.
+ * <p>
+ * The arrays of ids are copied when a member comes or goes, never changed, so a broadcast
+ * that is still queued keeps the members it was sent to. Broadcasts are queued under the lock
+ * of the room, so every member sees the changes in the same order.
+ * @see server.net.RoomRegistry
+ * @see server.net.Reactor
+ */
+final class Room
+{
+  private static final int[] NOBODY = new int[0];
+
+  private final String name;
+  private final GameServer server;
+  private final Controller game; //guarded by this
+  private final int[][] members; //ids of the members by reactor, guarded by this
+  private int size; //guarded by this
+  private boolean closed; //the last member left, guarded by this
+
+  /**
+   * Creates an empty room.
+   * @param name The name of the room.
+   * @param server The server of the members.
+   */
+  Room(String name, GameServer server)
+  {
+    this.name = name;
+    this.server = server;
+    this.game = new Controller(server.getDictionary());
+    this.members = new int[server.getReactorCount()][];
+    Arrays.fill(members, NOBODY);
+  }
+
+  /**
+   * Getter for the name of the room
+   * @return Return the name
+   */
+  String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Getter for the number of members
+   * @return Return the number of members
+   */
+  synchronized int size()
+  {
+    return size;
+  }
+
+  /**
+   * Adds a player and tells every member, the new one too, the state of the game.
+   * @param id The id of the player.
+   * @return false if the room was closed meanwhile, a new one has to be made.
+   */
+  synchronized boolean join(int id)
+  {
+    if(closed)
+      return false;
+    int reactor = server.reactorIndexOf(id);
+    int[] ids = members[reactor];
+    int[] grown = Arrays.copyOf(ids, ids.length + 1);
+    grown[ids.length] = id;
+    members[reactor] = grown;
+    size++;
+    game.showGame();
+    broadcast(id);
+    return true;
+  }
+
+  /**
+   * Takes a player out and tells the other members. Leaving twice does nothing.
+   * @param id The id of the player.
+   * @return true if the room is empty now, it is closed then.
+   */
+  synchronized boolean leave(int id)
+  {
+    int reactor = server.reactorIndexOf(id);
+    int[] ids = members[reactor];
+    int at = 0;
+    while(at < ids.length && ids[at] != id)
+      at++;
+    if(at == ids.length)
+      return closed;
+
+    int[] shrunk = ids.length == 1 ? NOBODY : new int[ids.length - 1];
+    System.arraycopy(ids, 0, shrunk, 0, at);
+    System.arraycopy(ids, at + 1, shrunk, at, ids.length - at - 1);
+    members[reactor] = shrunk;
+    if(--size == 0)
+    {
+      closed = true;
+      return true;
+    }
+    game.showGame();
+    broadcast(id);
+    return false;
+  }
+
+  /**
+   * Plays a START, GUESS or FINISH of a member on the game of the room. The new state goes
+   * to every member, the player that sent it gets no other answer.
+   * @param command The command, its argument is only read during the call.
+   * @param id The id of the player.
+   * @return The error message if the game refused the command, nothing is broadcast then, or null.
+   */
+  synchronized String play(Command command, int id)
+  {
+    game.askTheGame(command);
+    if(game.getResultType() == MsgType.ERROR)
+      return game.getResultPayload();
+    broadcast(id);
+    return null;
+  }
+
+  /**
+   * Encodes the state of the game once and hands it to every reactor that has members.
+   * @param by The id of the player that changed it.
+   */
+  private void broadcast(int by)
+  {
+    ByteBuffer state = Frame.encode(MsgType.ROOM, name + " " + game.getResultPayload() + " members=" + size + " by=player" + by).asReadOnlyBuffer();
+    for(int reactor=0;reactor<members.length;reactor++)
+    {
+      if(members[reactor].length > 0)
+        server.broadcast(reactor, state, members[reactor]);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package server.net;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the rooms by their names. A room is made by the first player that joins it and
+ * forgotten when the last one leaves. A player that finds a room just as it closes makes a
+ * new one under the same name.
+ * @see server.net.Room
+ */
+final class RoomRegistry
+{
+  static final int MAX_NAME_LENGTH = 32;
+
+  private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+  private final GameServer server;
+
+  RoomRegistry(GameServer server)
+  {
+    this.server = server;
+  }
+
+  /**
+   * Tells if a name can be used for a room, 1 to <code>MAX_NAME_LENGTH</code> letters,
+   * digits, <code>-</code> or <code>_</code>.
+   * @param name The name, may be null.
+   * @return true if it is a valid name.
+   */
+  static boolean isValidName(CharSequence name)
+  {
+    if(name == null || name.length() == 0 || name.length() > MAX_NAME_LENGTH)
+      return false;
+    for(int i=0;i<name.length();i++)
+    {
+      char c = name.charAt(i);
+      if(!Character.isLetterOrDigit(c) && c != '-' && c != '_')
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Adds a player to the room of the name, the room is made if there is none.
+   * @param name The name of the room.
+   * @param id The id of the player.
+   * @return The room the player is in now.
+   */
+  Room join(String name, int id)
+  {
+    while(true)
+    {
+      Room room = rooms.computeIfAbsent(name, n -> new Room(n, server));
+      if(room.join(id))
+        return room;
+      rooms.remove(name, room); //closed by its last member, which is removing it too
+    }
+  }
+
+  /**
+   * Takes a player out of a room, the room is forgotten if nobody is left.
+   * @param room The room.
+   * @param id The id of the player.
+   */
+  void leave(Room room, int id)
+  {
+    if(room.leave(id))
+      rooms.remove(room.getName(), room);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "rooms=" + rooms.size();
+  }
+}
@@ -0,0 +1,40 @@
+package server.net;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of one turn of the select loop of a <code>server.net.Reactor</code>.
+ * The duration is the whole turn, the time spent waiting in the selector is a field of its own.
+ * Like all events of the server it costs next to nothing when no recording runs, so it stays
+ * in the code. To record:
+ * <pre>
+ * java -XX:StartFlightRecording=filename=server.jfr,settings=profile -classpath build/ server.net.GameServer
+ * jfr print --events hangman.SelectLoop server.jfr
+ * </pre>
+ * @see server.net.Reactor
+ */
+@Name("hangman.SelectLoop")
+@Label("Select Loop")
+@Category({"Hangman", "Network"})
+@Description("One turn of the select loop of a reactor")
+@StackTrace(false)
+class SelectLoopEvent extends Event
+{
+  @Label("Reactor")
+  int reactor;
+
+  @Label("Select Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long selectTime;
+
+  @Label("Keys")
+  @Description("Selected keys handled in the turn")
+  int keys;
+
+  @Label("Drained Messages")
+  @Description("Outbound messages taken from the queue of the reactor")
+  int drained;
+
+  @Label("Removed Players")
+  int removed;
+}
@@ -0,0 +1,65 @@
+package server.net;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A mailbox that runs the tasks of one player strictly one after another, in the order they
+ * were given, on a shared thread pool. Different players have different mailboxes, so they
+ * still run in parallel, but two commands of the same player never run at the same time and
+ * the game objects of a player need no locks.
+ * <p>
+ * Only one drain task of a mailbox is in the pool at a time. It runs at most
+ * <code>BATCH</code> tasks and then gives the pool thread back by submitting itself again, so a
+ * busy player cannot take a pool thread for ever.
+ * @see server.net.Player
+ */
+class SerialExecutor implements Executor
+{
+  private static final int BATCH = 16;
+
+  private final Executor pool;
+  private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger depth = new AtomicInteger(); // tasks waiting or running
+  private final Runnable drain = this::drain;
+
+  /**
+   * @param pool The shared pool the tasks run on.
+   */
+  SerialExecutor(Executor pool)
+  {
+    this.pool = pool;
+  }
+
+  /**
+   * Queues a task behind the other tasks of this mailbox.
+   * @param task The task to run.
+   */
+  @Override
+  public void execute(Runnable task)
+  {
+    tasks.add(task);
+    if (depth.getAndIncrement() == 0)
+      pool.execute(drain);
+  }
+
+  private void drain()
+  {
+    for (int i = 0; i < BATCH; i++)
+    {
+      Runnable task = tasks.poll();
+      try
+      {
+        task.run();
+      }
+      catch (RuntimeException ex)
+      {
+        System.err.println("A player task failed: " + ex);
+      }
+      if (depth.decrementAndGet() == 0)
+        return;
+    }
+    pool.execute(drain);
+  }
+}
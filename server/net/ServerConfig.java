@@ -0,0 +1,284 @@
+package server.net;
+
+/**
+ * Holds the settings of the server that can be given on the command line. The first argument
+ * is the port number, the others are <code>name=value</code> pairs, for example
+ * <pre>
+ * java -classpath build/ server.net.GameServer 8080 reactors=4 exec=virtual
+ * </pre>
+ * Wrong values are reported and the default is used instead.
+ * @see server.net.GameServer
+ */
+class ServerConfig
+{
+  private int portNo = 8080;
+  private int reactors = Runtime.getRuntime().availableProcessors();
+  private ExecutionMode executionMode = ExecutionMode.POOL;
+  private int maxQueuedBytes = 1 << 20; //bytes waiting for one player before it is disconnected
+  private int pooledBuffers = 1024; //direct buffers shared by all reads and writes
+  private int responseBuffers = 8192; //small direct buffers the answers are encoded into
+  private int coalesceMillis = 0; //how long an answer may wait for more answers to the same player, 0 for never
+  private int coalesceBytes = 1400; //held answers are written when this many bytes wait, about one packet
+  private boolean noDelay = true; //TCP_NODELAY, the server does its own coalescing
+  private int statsSeconds = 0; //how often the counters are printed, 0 for never
+  private int httpPort = 0; //port of the stats page on the loopback address, 0 for none
+  private int sessionTtlSeconds = 300; //how long a dropped session can be resumed, 0 for never
+  private int maxDroppedSessions = 10000; //most dropped sessions kept for resuming
+  private int idleTimeoutMillis = GameServer.TIMEOUT_TIME; //players that send nothing for this long are disconnected, 0 for never
+
+  /**
+   * Reads the settings from the command line arguments.
+   * @param args The arguments of the main function.
+   * @return The settings.
+   */
+  static ServerConfig parse(String[] args)
+  {
+    ServerConfig config = new ServerConfig();
+    for(int i=0;i<args.length;i++)
+    {
+      if(i == 0 && !args[i].contains("="))
+      {
+        config.portNo = config.validatePort(args[i]) ? Integer.parseInt(args[i]) : config.portNo;
+        continue;
+      }
+
+      String[] pair = args[i].split("=", 2);
+      if(pair.length != 2)
+      {
+        System.err.println("Unknown argument: " + args[i]);
+        continue;
+      }
+      switch (pair[0])
+      {
+      case "reactors":
+        config.reactors = positive(pair[0], pair[1], config.reactors);
+        break;
+      case "maxQueuedBytes":
+        config.maxQueuedBytes = positive(pair[0], pair[1], config.maxQueuedBytes);
+        break;
+      case "pooledBuffers":
+        config.pooledBuffers = slab(pair[0], pair[1], GameServer.READ_BUFFER_SIZE, config.pooledBuffers);
+        break;
+      case "responseBuffers":
+        config.responseBuffers = slab(pair[0], pair[1], GameServer.RESPONSE_BUFFER_SIZE, config.responseBuffers);
+        break;
+      case "coalesceMillis":
+        config.coalesceMillis = notNegative(pair[0], pair[1], config.coalesceMillis);
+        break;
+      case "coalesceBytes":
+        config.coalesceBytes = positive(pair[0], pair[1], config.coalesceBytes);
+        break;
+      case "noDelay":
+        if(pair[1].equals("true") || pair[1].equals("false"))
+          config.noDelay = Boolean.parseBoolean(pair[1]);
+        else
+          System.err.println("The value of noDelay should be true or false. Going on with the default " + config.noDelay + ".");
+        break;
+      case "sessionTtlSeconds":
+        config.sessionTtlSeconds = notNegative(pair[0], pair[1], config.sessionTtlSeconds);
+        break;
+      case "maxDroppedSessions":
+        config.maxDroppedSessions = positive(pair[0], pair[1], config.maxDroppedSessions);
+        break;
+      case "idleTimeoutMillis":
+        config.idleTimeoutMillis = notNegative(pair[0], pair[1], config.idleTimeoutMillis);
+        break;
+      case "statsSeconds":
+        config.statsSeconds = notNegative(pair[0], pair[1], config.statsSeconds);
+        break;
+      case "httpPort":
+        config.httpPort = notNegative(pair[0], pair[1], config.httpPort);
+        break;
+      case "exec":
+        ExecutionMode mode = ExecutionMode.of(pair[1]);
+        if(mode != null)
+          config.executionMode = mode;
+        else
+          System.err.println("Unknown execution mode " + pair[1] + ". Going on with the default " + config.executionMode + ".");
+        break;
+      default:
+        System.err.println("Unknown argument: " + args[i]);
+      }
+    }
+    return config;
+  }
+
+  /**
+   * Getter for the port the server listens to
+   * @return Return the port number
+   */
+  int getPortNo()
+  {
+    return portNo;
+  }
+
+  /**
+   * Getter for the number of I/O reactor threads
+   * @return Return the number of reactors
+   */
+  int getReactors()
+  {
+    return reactors;
+  }
+
+  /**
+   * Getter for the threads the game commands run on
+   * @return Return the execution mode
+   */
+  ExecutionMode getExecutionMode()
+  {
+    return executionMode;
+  }
+
+  /**
+   * Getter for the most bytes that may wait to be written to one player
+   * @return Return the limit in bytes
+   */
+  int getMaxQueuedBytes()
+  {
+    return maxQueuedBytes;
+  }
+
+  /**
+   * Getter for the number of pooled direct buffers
+   * @return Return the size of the buffer pool
+   */
+  int getPooledBuffers()
+  {
+    return pooledBuffers;
+  }
+
+  /**
+   * Getter for the number of pooled response buffers
+   * @return Return the size of the response pool
+   */
+  int getResponseBuffers()
+  {
+    return responseBuffers;
+  }
+
+  /**
+   * Getter for the coalescing window
+   * @return Return the window in milliseconds, 0 when answers are written right away
+   */
+  int getCoalesceMillis()
+  {
+    return coalesceMillis;
+  }
+
+  /**
+   * Getter for the bytes that close a coalescing window early
+   * @return Return the threshold in bytes
+   */
+  int getCoalesceBytes()
+  {
+    return coalesceBytes;
+  }
+
+  /**
+   * Getter for the TCP_NODELAY option of the player sockets
+   * @return Return true if Nagle's algorithm is off
+   */
+  boolean getNoDelay()
+  {
+    return noDelay;
+  }
+
+  /**
+   * Getter for the period of the printed counters
+   * @return Return the period in seconds, 0 when nothing is printed
+   */
+  int getStatsSeconds()
+  {
+    return statsSeconds;
+  }
+
+  /**
+   * Getter for the port of the stats page
+   * @return Return the port, 0 when there is no stats page
+   */
+  int getHttpPort()
+  {
+    return httpPort;
+  }
+
+  /**
+   * Getter for how long a dropped session can be resumed
+   * @return Return the time in seconds, 0 when sessions end with their connection
+   */
+  int getSessionTtlSeconds()
+  {
+    return sessionTtlSeconds;
+  }
+
+  /**
+   * Getter for the most dropped sessions kept
+   * @return Return the number of sessions
+   */
+  int getMaxDroppedSessions()
+  {
+    return maxDroppedSessions;
+  }
+
+  /**
+   * Getter for the idle timeout of the players
+   * @return Return the timeout in milliseconds, 0 when idle players are kept
+   */
+  int getIdleTimeoutMillis()
+  {
+    return idleTimeoutMillis;
+  }
+
+  private Boolean validatePort(String arg)
+  {
+      try
+      {
+        int prt = Integer.parseInt(arg);
+        if( (prt < 1024) || (prt > 65535) )
+          throw new Exception();
+      }
+      catch (Exception e)
+      {
+        System.err.println("The entered port number is corrupt. Going on with the default.");
+        return false;
+      }
+
+      return true;
+  }
+
+  private static int notNegative(String name, String value, int def)
+  {
+      return value.equals("0") ? 0 : positive(name, value, def);
+  }
+
+  /**
+   * Reads a number of pooled buffers, all of them must fit in the one slab of the pool.
+   */
+  private static int slab(String name, String value, int bufferSize, int def)
+  {
+      int v = positive(name, value, def);
+      if(v > BufferPool.maxBuffers(bufferSize))
+      {
+        System.err.println("The value of " + name + " is too big, " + v + " buffers of " + bufferSize + " bytes are "
+            + ((long) v * bufferSize) + " bytes and a pool has at most " + BufferPool.maxBuffers(bufferSize) + ". Going on with the default " + def + ".");
+        return def;
+      }
+      return v;
+  }
+
+  private static int positive(String name, String value, int def)
+  {
+      try
+      {
+        int v = Integer.parseInt(value);
+        if(v <= 0)
+          throw new Exception();
+        return v;
+      }
+      catch (Exception e)
+      {
+        System.err.println("The value of " + name + " is corrupt. Going on with the default " + def + ".");
+        return def;
+      }
+  }
+}
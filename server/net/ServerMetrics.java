@@ -0,0 +1,243 @@
+package server.net;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import common.*;
+
+/**
+ * Counts the traffic of the server: connections, accepts, bytes read and written, the
+ * commands of every <code>common.MsgType</code>, the commands waiting in the inboxes of the
+ * players and how long the commands take, from the read that completed the command until the
+ * write that took the last byte of its answer. The
+ * counters are <code>LongAdder</code>s and the latencies go to a
+ * <code>common.LatencyHistogram</code> per type, so the reactors and the game threads
+ * never wait for each other while they count. It can be read from any thread.
+ * @see server.net.GameServer
+ * @see common.LatencyHistogram
+ */
+public class ServerMetrics
+{
+  private static final MsgType[] TYPES = MsgType.values();
+
+  private final LongAdder connections = new LongAdder(); // players connected right now
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder acceptFailures = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder[] commands = new LongAdder[TYPES.length]; // index is the ordinal
+  private final LongAdder pendingCommands = new LongAdder(); // read but not run yet, of all players
+  private final LongAccumulator maxPendingCommands = new LongAccumulator(Math::max, 0); // most commands one player had waiting
+  private final LatencyHistogram[] latencies = new LatencyHistogram[TYPES.length];
+  private volatile long acceptSecond; // the second accepts are counted for, only written by the acceptor thread
+  private volatile int acceptsNow; // accepts in acceptSecond
+  private volatile int acceptsBefore; // accepts in the second before acceptSecond
+
+  ServerMetrics()
+  {
+    for (int i = 0; i < TYPES.length; i++)
+    {
+      commands[i] = new LongAdder();
+      latencies[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Counts an accepted connection. Only the acceptor thread calls this.
+   */
+  void accepted()
+  {
+    accepted.increment();
+    long second = System.nanoTime() / 1000000000L;
+    if (second != acceptSecond)
+    {
+      acceptsBefore = second == acceptSecond + 1 ? acceptsNow : 0;
+      acceptsNow = 0;
+      acceptSecond = second;
+    }
+    acceptsNow++;
+  }
+
+  void acceptFailed()
+  {
+    acceptFailures.increment();
+  }
+
+  void connected()
+  {
+    connections.increment();
+  }
+
+  void disconnected()
+  {
+    connections.decrement();
+  }
+
+  void read(long bytes)
+  {
+    bytesIn.add(bytes);
+  }
+
+  void written(long bytes)
+  {
+    bytesOut.add(bytes);
+  }
+
+  void command(MsgType type)
+  {
+    commands[type.ordinal()].increment();
+  }
+
+  /**
+   * Counts a command put in the inbox of a player.
+   * @param pending The commands of the player waiting now, this one included.
+   */
+  void commandQueued(int pending)
+  {
+    pendingCommands.increment();
+    if (pending > maxPendingCommands.get())
+      maxPendingCommands.accumulate(pending);
+  }
+
+  /**
+   * Counts a command taken out of the inbox of a player to run.
+   */
+  void commandDequeued()
+  {
+    pendingCommands.decrement();
+  }
+
+  /**
+   * Counts the latency of an answered command.
+   * @param type The type of the command.
+   * @param nanos From the read of the command to the write of its answer.
+   */
+  void answered(MsgType type, long nanos)
+  {
+    latencies[type.ordinal()].record(nanos);
+  }
+
+  /**
+   * Getter for the number of connected players
+   * @return Return the open connections
+   */
+  public long getConnections()
+  {
+    return connections.sum();
+  }
+
+  /**
+   * Getter for the number of accepted connections since the start
+   * @return Return the accepts
+   */
+  public long getAccepted()
+  {
+    return accepted.sum();
+  }
+
+  /**
+   * Getter for the accepts of the last whole second
+   * @return Return the accepts per second
+   */
+  public int getAcceptsPerSecond()
+  {
+    long second = System.nanoTime() / 1000000000L;
+    long counted = acceptSecond;
+    if (counted == second)
+      return acceptsBefore;
+    return counted == second - 1 ? acceptsNow : 0;
+  }
+
+  /**
+   * Getter for the number of accepts that failed, for example for too many open files
+   * @return Return the failed accepts
+   */
+  public long getAcceptFailures()
+  {
+    return acceptFailures.sum();
+  }
+
+  /**
+   * Getter for the bytes read from the players
+   * @return Return the bytes in
+   */
+  public long getBytesIn()
+  {
+    return bytesIn.sum();
+  }
+
+  /**
+   * Getter for the bytes written to the players
+   * @return Return the bytes out
+   */
+  public long getBytesOut()
+  {
+    return bytesOut.sum();
+  }
+
+  /**
+   * Getter for the number of commands of a type
+   * @param type The type of the commands
+   * @return Return the commands received
+   */
+  public long getCommands(MsgType type)
+  {
+    return commands[type.ordinal()].sum();
+  }
+
+  /**
+   * Getter for the number of commands waiting in the inboxes of all players
+   * @return Return the commands read but not run yet
+   */
+  public long getPendingCommands()
+  {
+    return pendingCommands.sum();
+  }
+
+  /**
+   * Getter for the deepest inbox since the start
+   * @return Return the most commands one player had waiting at once
+   */
+  public long getMaxPendingCommands()
+  {
+    return maxPendingCommands.get();
+  }
+
+  /**
+   * Getter for the latencies of the commands of a type
+   * @param type The type of the commands
+   * @return Return the histogram of the type
+   */
+  public LatencyHistogram getLatency(MsgType type)
+  {
+    return latencies[type.ordinal()];
+  }
+
+  /**
+   * Converts the counters to string, one line for the connections, one for the commands
+   * waiting in the inboxes and one for every type of command that was received, with its
+   * latencies in microseconds.
+   * @return String summary of the counters
+   */
+  public String toString()
+  {
+    StringBuilder text = new StringBuilder();
+    text.append("connections=").append(getConnections()).append(" accepted=").append(getAccepted())
+        .append(" acceptsPerSecond=").append(getAcceptsPerSecond()).append(" acceptFailures=").append(getAcceptFailures())
+        .append(" bytesIn=").append(getBytesIn()).append(" bytesOut=").append(getBytesOut());
+    text.append("\ninbox pending=").append(getPendingCommands()).append(" maxPerPlayer=").append(getMaxPendingCommands());
+    for (MsgType type : TYPES)
+    {
+      long count = getCommands(type);
+      if (count == 0)
+        continue;
+      LatencyHistogram latency = latencies[type.ordinal()];
+      text.append('\n').append(type).append(" count=").append(count);
+      if (latency.getCount() == 0)
+        continue; //never answered, like DISCONNECT
+      long[] p = latency.percentiles(50, 99, 99.9);
+      text.append(" p50us=").append(p[0] / 1000).append(" p99us=").append(p[1] / 1000)
+          .append(" p999us=").append(p[2] / 1000).append(" maxus=").append(latency.getMax() / 1000);
+    }
+    return text.toString();
+  }
+}
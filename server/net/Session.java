@@ -0,0 +1,43 @@
+package server.net;
+
+import server.controller.*;
+
+/**
+ * The game of one client, kept apart from its connection so a client can come back with
+ * <code>RESUME</code> after the connection drops. Commands lock the session while they use
+ * the controller, because for a moment the old and the new connection may both have commands
+ * running on it.
+ * @see server.net.SessionStore
+ */
+final class Session
+{
+  private final String token;
+  private final Controller controller;
+  Player player; //the connection playing it, null while dropped, guarded by the store
+  long droppedAt; //when the connection dropped in milliseconds, guarded by the store
+
+  Session(String token, Controller controller, Player player)
+  {
+    this.token = token;
+    this.controller = controller;
+    this.player = player;
+  }
+
+  /**
+   * Getter for the token the client resumes with
+   * @return Return the token
+   */
+  String getToken()
+  {
+    return token;
+  }
+
+  /**
+   * Getter for the controller of the game, only to be used while holding the session lock
+   * @return Return the controller
+   */
+  Controller getController()
+  {
+    return controller;
+  }
+}
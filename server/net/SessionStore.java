@@ -0,0 +1,274 @@
+package server.net;
+
+import java.io.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import server.controller.*;
+
+/**
+ * Keeps the sessions of the players by their tokens. A session stays here while its player is
+ * connected, and for <code>sessionTtlSeconds</code> after the connection drops, so a client
+ * can take it back with <code>RESUME</code>. Dropped sessions are kept in the order they
+ * dropped, the ttl is the same for all so the expired ones are always at the head. At most
+ * <code>maxDroppedSessions</code> are kept, the oldest go first, so a storm of dropped
+ * connections cannot fill the memory.
+ * <p>
+ * Sessions are opened and dropped when connections come and go, and resumed or closed by the
+ * <code>RESUME</code> and <code>DISCONNECT</code> commands, <code>STATS</code> only reads the
+ * counters. That is rare next to the other commands, so one lock is enough. The session of a
+ * player is switched under this lock too, so a connection that drops always drops the session
+ * it plays now. A session that is forgotten leaves the leaderboard. That takes the lock of
+ * the session, which commands hold while they run, so it happens only after the lock of the
+ * store is released, never inside it.
+ * @see server.net.Session
+ */
+public class SessionStore
+{
+  private static final SecureRandom RANDOM = new SecureRandom();
+  private static final int TOKEN_BYTES = 16;
+
+  private final long ttlMillis;
+  private final int maxDropped;
+  private final Map<String, Session> sessions = new HashMap<>();
+  private final LinkedHashMap<String, Session> dropped = new LinkedHashMap<>(); // oldest drop first
+  private final LongAdder resumed = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+
+  SessionStore(long ttlMillis, int maxDropped)
+  {
+    this.ttlMillis = ttlMillis;
+    this.maxDropped = maxDropped;
+  }
+
+  /**
+   * Opens a session for a new player and makes it the session of the player.
+   * @param controller The controller of the new game.
+   * @param player The player.
+   */
+  void open(Controller controller, Player player)
+  {
+    List<Session> forgotten;
+    synchronized (this)
+    {
+      forgotten = evict(now());
+      String token;
+      do
+      {
+        token = newToken();
+      }
+      while (sessions.containsKey(token));
+      Session session = new Session(token, controller, player);
+      sessions.put(token, session);
+      player.session = session;
+    }
+    leave(forgotten);
+  }
+
+  /**
+   * Gives a session to a player and forgets the session the player had until now, in one
+   * step. If the session is still played by another connection, that connection is closed,
+   * the client is obviously not there anymore.
+   * @param token The token the client sent.
+   * @param player The new player of the session.
+   * @return false if the token is not known, the session expired or the player disconnected meanwhile.
+   */
+  boolean resume(String token, Player player)
+  {
+    Session session;
+    Player previous = null;
+    List<Session> forgotten;
+    synchronized (this)
+    {
+      forgotten = evict(now());
+      //the player sets connected before it drops, so after this check its drop finds the new session
+      session = player.isConnected() ? sessions.get(token) : null;
+      if (session != null)
+      {
+        dropped.remove(token);
+        previous = session.player;
+        session.player = player;
+        Session own = player.session;
+        player.session = session;
+        if (own != session)
+        {
+          forget(own);
+          if (forgotten == null)
+            forgotten = new ArrayList<>();
+          forgotten.add(own);
+        }
+        resumed.increment();
+      }
+    }
+    leave(forgotten);
+    if (session == null)
+      return false;
+    if (previous != null && previous != player)
+    {
+      try
+      {
+        previous.disconnect();
+      }
+      catch (IOException ex)
+      {
+        System.err.println("Could not close the old connection of a resumed session: " + previous.getId());
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Keeps the session of a player whose connection dropped, so it can be resumed.
+   * Nothing happens if the session already belongs to another connection.
+   * @param player The player that dropped, it is not connected anymore.
+   */
+  void drop(Player player)
+  {
+    List<Session> forgotten;
+    synchronized (this)
+    {
+      Session session = player.session;
+      if (session.player != player)
+        return;
+      session.player = null;
+      if (ttlMillis == 0)
+      {
+        sessions.remove(session.getToken());
+        forgotten = Collections.singletonList(session);
+      }
+      else
+      {
+        long now = now();
+        session.droppedAt = now;
+        dropped.put(session.getToken(), session);
+        forgotten = evict(now);
+      }
+    }
+    leave(forgotten);
+  }
+
+  /**
+   * Forgets a session, when the client said goodbye or resumed another one.
+   * @param session The session.
+   */
+  void close(Session session)
+  {
+    synchronized (this)
+    {
+      forget(session);
+    }
+    leave(Collections.singletonList(session));
+  }
+
+  /**
+   * Takes a session out of the store. Must hold the lock of the store.
+   * @param session The session.
+   */
+  private void forget(Session session)
+  {
+    sessions.remove(session.getToken());
+    dropped.remove(session.getToken());
+    session.player = null; //so the drop of the connection does not keep it
+  }
+
+  /**
+   * Forgets the dropped sessions that expired or are too many. Must hold the lock of the store.
+   * @param now The time in milliseconds.
+   * @return The forgotten sessions, null if there are none.
+   */
+  private List<Session> evict(long now)
+  {
+    List<Session> forgotten = null;
+    Iterator<Session> oldest = dropped.values().iterator();
+    while (oldest.hasNext())
+    {
+      Session session = oldest.next();
+      if (now - session.droppedAt < ttlMillis && dropped.size() <= maxDropped)
+        break;
+      oldest.remove();
+      sessions.remove(session.getToken());
+      if (forgotten == null)
+        forgotten = new ArrayList<>();
+      forgotten.add(session);
+      expired.increment();
+    }
+    return forgotten;
+  }
+
+  /**
+   * Takes forgotten sessions off the leaderboard. Must not hold the lock of the store.
+   * @param forgotten The sessions, may be null.
+   */
+  private static void leave(List<Session> forgotten)
+  {
+    if (forgotten == null)
+      return;
+    for (Session session : forgotten)
+    {
+      synchronized (session)
+      {
+        session.getController().leave();
+      }
+    }
+  }
+
+  private static long now()
+  {
+    return System.nanoTime() / 1000000;
+  }
+
+  private static String newToken()
+  {
+    byte[] bytes = new byte[TOKEN_BYTES];
+    RANDOM.nextBytes(bytes);
+    StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+    for (byte b : bytes)
+      token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    return token.toString();
+  }
+
+  /**
+   * Getter for the number of sessions, played or dropped
+   * @return Return the number of sessions
+   */
+  public synchronized int getSessions()
+  {
+    return sessions.size();
+  }
+
+  /**
+   * Getter for the number of dropped sessions waiting to be resumed
+   * @return Return the number of dropped sessions
+   */
+  public synchronized int getDropped()
+  {
+    return dropped.size();
+  }
+
+  /**
+   * Getter for the number of resumed sessions
+   * @return Return how many times a session was resumed
+   */
+  public long getResumed()
+  {
+    return resumed.sum();
+  }
+
+  /**
+   * Getter for the number of dropped sessions that were never resumed
+   * @return Return the expired and evicted sessions
+   */
+  public long getExpired()
+  {
+    return expired.sum();
+  }
+
+  /**
+   * Converts the store state to string
+   * @return String summary of the sessions
+   */
+  public String toString()
+  {
+    return "sessions=" + getSessions() + " dropped=" + getDropped() + " resumed=" + getResumed() + " expired=" + getExpired();
+  }
+}
@@ -0,0 +1,132 @@
+package server.net;
+
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel that finds the idle players of one reactor without looking at every
+ * player. The wheel has a fixed number of slots, each slot is one tick long and the whole
+ * wheel is a little longer than the idle timeout, so a player is never more than one turn
+ * away. Players are linked into their slot through fields of <code>server.net.Player</code>,
+ * adding and removing them creates nothing.
+ * <p>
+ * Activity only updates the time of the player, it is not moved in the wheel. When the wheel
+ * reaches the slot of a player, the player is either idle for the whole timeout and given to
+ * the reaper, or it is put into the slot of its new deadline. So every read costs one store
+ * and every player is looked at about once per timeout. Not thread safe, only the reactor
+ * thread uses it.
+ * @see server.net.Reactor
+ */
+class TimingWheel
+{
+  private static final int SLOTS = 512;
+
+  private final Player[] slots = new Player[SLOTS]; // first player of every slot
+  private final long timeoutMillis;
+  private final long tickMillis;
+  private long currentTick;
+  private int size;
+
+  /**
+   * Creates an empty wheel.
+   * @param timeoutMillis How long a player may be idle.
+   * @param nowMillis The current time in milliseconds.
+   */
+  TimingWheel(long timeoutMillis, long nowMillis)
+  {
+    this.timeoutMillis = timeoutMillis;
+    this.tickMillis = timeoutMillis / (SLOTS - 1) + 1;
+    this.currentTick = nowMillis / tickMillis;
+  }
+
+  /**
+   * Puts a player into the wheel, with the deadline from its last activity.
+   * @param player The player, not in the wheel yet.
+   */
+  void add(Player player)
+  {
+    long deadlineTick = (player.getLastActivity() + timeoutMillis) / tickMillis;
+    int slot = (int) (Math.max(deadlineTick, currentTick + 1) % SLOTS);
+    player.wheelSlot = slot;
+    player.wheelPrev = null;
+    player.wheelNext = slots[slot];
+    if (slots[slot] != null)
+      slots[slot].wheelPrev = player;
+    slots[slot] = player;
+    size++;
+  }
+
+  /**
+   * Takes a player out of the wheel, if it is there.
+   * @param player The player.
+   */
+  void remove(Player player)
+  {
+    if (player.wheelSlot < 0)
+      return;
+    if (player.wheelPrev != null)
+      player.wheelPrev.wheelNext = player.wheelNext;
+    else
+      slots[player.wheelSlot] = player.wheelNext;
+    if (player.wheelNext != null)
+      player.wheelNext.wheelPrev = player.wheelPrev;
+    player.wheelPrev = null;
+    player.wheelNext = null;
+    player.wheelSlot = -1;
+    size--;
+  }
+
+  /**
+   * Turns the wheel to the current time. The players of every passed slot that were idle for
+   * the whole timeout are given to the reaper, the others go to the slot of their deadline.
+   * After a long pause every slot is looked at only once.
+   * @param nowMillis The current time in milliseconds.
+   * @param reaper Gets the idle players, they are already out of the wheel.
+   */
+  void advance(long nowMillis, Consumer<Player> reaper)
+  {
+    long target = nowMillis / tickMillis;
+    if (target - currentTick > SLOTS)
+      currentTick = target - SLOTS;
+    while (currentTick < target)
+    {
+      currentTick++;
+      int slot = (int) (currentTick % SLOTS);
+      Player player = slots[slot];
+      slots[slot] = null;
+      while (player != null)
+      {
+        Player next = player.wheelNext;
+        player.wheelPrev = null;
+        player.wheelNext = null;
+        player.wheelSlot = -1;
+        size--;
+        if (nowMillis - player.getLastActivity() >= timeoutMillis)
+          reaper.accept(player);
+        else
+          add(player);
+        player = next;
+      }
+    }
+  }
+
+  /**
+   * Milliseconds until the next slot is due, to limit the wait of the selector.
+   * @param nowMillis The current time in milliseconds.
+   * @return Return the wait, 0 if the wheel is empty.
+   */
+  long millisToNextTick(long nowMillis)
+  {
+    if (size == 0)
+      return 0;
+    return Math.max(1, (currentTick + 1) * tickMillis - nowMillis);
+  }
+
+  /**
+   * Getter for the number of players in the wheel
+   * @return Return the number of players
+   */
+  int size()
+  {
+    return size;
+  }
+}